@@ -0,0 +1,179 @@
+package com.kraken;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kraken.loader.JarCache;
+import com.kraken.loader.ProcessLock;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * Computes the hardware id of this machine once per process on a background thread and memoizes it. Computing the
+ * hardware id with OSHI queries the OS, processor and computer system which is slow, so the result is also persisted
+ * to RUNELITE_DIR/kraken/hardware-id.json together with a stamp of cheap machine properties (OS, architecture,
+ * processor count, host name, user and machine id). A later process reuses the persisted hardware id without touching
+ * OSHI as long as the stamp matches and the hardware id was computed within the last week.
+ *
+ * The hardware id is computed as soon as start() is called, usually by the launcher, or on first use. The persisted
+ * hardware id is read and written under a ProcessLock so client processes started together compute it only once.
+ */
+@Slf4j
+public class HardwareIdService {
+    private static final String KRAKEN_DIR = "kraken";
+    private static final String HARDWARE_ID_FILE = "hardware-id.json";
+    private static final String LOCK_FILE = "hardware-id.lock";
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static CompletableFuture<String> hardwareId;
+
+    @Data
+    public static class PersistedHardwareId {
+        private String hardwareId;
+        private String stamp;
+        private long computedAt;
+    }
+
+    /**
+     * Starts computing the hardware id on a background thread. Only the first call has any effect.
+     */
+    public static void start() {
+        getHardwareIdAsync();
+    }
+
+    /**
+     * Returns the hardware id without blocking the calling thread. The hardware id is computed once per process, a
+     * failed computation is not memoized so the next call computes it again.
+     * @return CompletableFuture which completes with the hardware id, or exceptionally if OSHI failed to read the
+     * hardware of this machine.
+     */
+    public static synchronized CompletableFuture<String> getHardwareIdAsync() {
+        if (hardwareId == null) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            hardwareId = future;
+            Thread thread = new Thread(() -> {
+                try {
+                    future.complete(computeHardwareId());
+                } catch (Exception e) {
+                    log.error("Exception thrown while computing the hardware id. Error = {}", e.getMessage());
+                    e.printStackTrace();
+                    clearFailed(future);
+                    future.completeExceptionally(e);
+                }
+            }, "kraken-hardware-id");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return hardwareId;
+    }
+
+    private static synchronized void clearFailed(CompletableFuture<String> failed) {
+        if (hardwareId == failed) {
+            hardwareId = null;
+        }
+    }
+
+    /**
+     * Returns the hardware id, waiting for it if it is still being computed. Avoid calling this on the EDT, use
+     * getHardwareIdAsync() instead.
+     * @return String the hardware id
+     */
+    public static String getHardwareId() {
+        return getHardwareIdAsync().join();
+    }
+
+    private static String computeHardwareId() {
+        Path file = RUNELITE_DIR.toPath().resolve(KRAKEN_DIR).resolve(HARDWARE_ID_FILE);
+        String stamp = stamp();
+
+        // Another process which holds the lock is computing the hardware id, wait for it and reuse its result.
+        try (ProcessLock lock = ProcessLock.tryAcquire(file.resolveSibling(LOCK_FILE))) {
+            PersistedHardwareId persisted = read(file);
+            if (persisted != null && stamp.equals(persisted.getStamp())
+                    && System.currentTimeMillis() - persisted.getComputedAt() < MAX_AGE) {
+                return persisted.getHardwareId();
+            }
+
+            long startTime = System.currentTimeMillis();
+            String id = HardwareUtils.getHardwareId();
+            log.debug("Computed hardware id in {} ms.", System.currentTimeMillis() - startTime);
+
+            persisted = new PersistedHardwareId();
+            persisted.setHardwareId(id);
+            persisted.setStamp(stamp);
+            persisted.setComputedAt(System.currentTimeMillis());
+            write(file, persisted);
+            return id;
+        }
+    }
+
+    /**
+     * Builds a stamp from machine properties which are cheap to read. The stamp changes when the RuneLite directory
+     * is used from another machine or OS install so the persisted hardware id is recomputed.
+     * @return String SHA-256 of the machine properties
+     */
+    private static String stamp() {
+        String properties = String.join("|",
+                System.getProperty("os.name", ""),
+                System.getProperty("os.arch", ""),
+                System.getProperty("os.version", ""),
+                System.getProperty("user.name", ""),
+                System.getProperty("user.home", ""),
+                String.valueOf(Runtime.getRuntime().availableProcessors()),
+                env("COMPUTERNAME"),
+                env("HOSTNAME"),
+                readFirstLine(Paths.get("/etc/hostname")),
+                readFirstLine(Paths.get("/etc/machine-id")));
+        return JarCache.sha256(ByteBuffer.wrap(properties.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String env(String name) {
+        String value = System.getenv(name);
+        return value == null ? "" : value;
+    }
+
+    private static String readFirstLine(Path path) {
+        try {
+            return Files.isReadable(path) ? Files.readAllLines(path).stream().findFirst().orElse("") : "";
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static PersistedHardwareId read(Path path) {
+        File file = path.toFile();
+        if (!file.exists() || file.length() == 0) {
+            return null;
+        }
+
+        try {
+            return mapper.readValue(file, PersistedHardwareId.class);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to read the persisted hardware id. Error = {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static void write(Path path, PersistedHardwareId persisted) {
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = Files.createTempFile(path.getParent(), HARDWARE_ID_FILE, ".tmp");
+            mapper.writeValue(tmp.toFile(), persisted);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to persist the hardware id. Error = {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.kraken;
+
+import com.google.inject.Guice;
+import com.kraken.api.model.CognitoUser;
+import com.kraken.api.model.PreSignedURL;
+import com.kraken.loader.ByteArrayClassLoader;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the network and hardware work the Kraken loader plugin needs as soon as the launcher starts so it overlaps
+ * with RuneLite's boot. The stored credentials are loaded and authenticated, the hardware id is computed (see
+ * HardwareIdService) and every plugin JAR is downloaded into the JAR cache on background threads. KrakenLoaderPlugin
+ * picks up the results once it starts, waiting on any work which is still in flight.
+ *
+ * The bootstrap runs before RuneLite's injector exists so it uses its own instances of the API client and JAR loader.
+ * They still share the client's BandwidthGovernor, JarCache and RequestLimiter, which are the same instances in every
+ * injector.
+ */
+@Slf4j
+public class KrakenBootstrap {
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    private static final AtomicBoolean pluginsTaken = new AtomicBoolean(false);
+
+    private static CompletableFuture<CognitoUser> user;
+    private static CompletableFuture<List<ByteArrayClassLoader>> plugins;
+
+    /**
+     * Starts the background work. Only the first call has any effect.
+     */
+    public static void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "kraken-bootstrap-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        HardwareIdService.start();
+
+        CompletableFuture<KrakenPrewarm> prewarm = CompletableFuture.supplyAsync(() -> Guice.createInjector().getInstance(KrakenPrewarm.class), executor);
+        user = prewarm.thenApplyAsync(KrakenPrewarm::authenticate, executor);
+        plugins = prewarm.thenCombineAsync(user, (p, authUser) -> {
+            if (authUser == null) {
+                return null;
+            }
+
+            List<PreSignedURL> urls = p.fetchPresignedUrls(authUser);
+            if (urls == null) {
+                log.error("Failed to fetch presigned URLs. Plugins will be downloaded once the client has started.");
+                return null;
+            }
+
+            long startTime = System.currentTimeMillis();
+            List<ByteArrayClassLoader> loaders = p.download(urls);
+            if (loaders != null) {
+                log.info("Prefetched {} plugin JAR{} in {} ms.", loaders.size(), loaders.size() == 1 ? "" : "s", System.currentTimeMillis() - startTime);
+            }
+            return loaders;
+        }, executor);
+
+        // The executor is only needed for the bootstrap, let its threads exit once the prefetch has finished.
+        plugins.whenComplete((loaders, throwable) -> executor.shutdown());
+    }
+
+    /**
+     * @return boolean True if the launcher started the bootstrap.
+     */
+    public static boolean isStarted() {
+        return started.get();
+    }
+
+    /**
+     * Returns the user authenticated by the bootstrap, waiting for authentication to finish if it is still in flight.
+     * @return CognitoUser the authenticated user or null if the bootstrap was not started, there are no credentials
+     * on disk or authentication failed.
+     */
+    public static CognitoUser getAuthenticatedUser() {
+        if (!isStarted()) {
+            return null;
+        }
+
+        try {
+            return user.join();
+        } catch (Exception e) {
+            log.error("Exception thrown while authenticating in the background. Error = {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Hands the class loaders of the prefetched plugin JARs to the caller, waiting for the prefetch to finish if it is
+     * still in flight. The loaders are only handed out once, later syncs download the plugins themselves.
+     * @return List of class loaders in the order of the presigned URLs or null if the bootstrap was not started, the
+     * loaders were already taken or the prefetch failed.
+     */
+    public static List<ByteArrayClassLoader> takePrefetchedPlugins() {
+        if (!isStarted() || !pluginsTaken.compareAndSet(false, true)) {
+            return null;
+        }
+
+        try {
+            return plugins.join();
+        } catch (Exception e) {
+            log.error("Exception thrown while prefetching plugin JARs. Error = {}", e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
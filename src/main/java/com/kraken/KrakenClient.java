@@ -1,5 +1,6 @@
 package com.kraken;
 
+import com.google.inject.Guice;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.client.RuneLite;
 import net.runelite.client.externalplugins.ExternalPluginManager;
@@ -46,8 +47,18 @@ public class KrakenClient {
 
 
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && KrakenPrewarm.COMMAND.equals(args[0])) {
+            // Headless, no RuneLite or Swing is started.
+            System.setProperty("java.awt.headless", "true");
+            boolean prewarmed = Guice.createInjector().getInstance(KrakenPrewarm.class).run();
+            System.exit(prewarmed ? 0 : 1);
+        }
+
         checkJavaVersion();
 
+        // Authenticate and download the plugins in the background while RuneLite boots.
+        KrakenBootstrap.start();
+
         ClassLoader.getSystemClassLoader().setDefaultAssertionStatus(true);
         ExternalPluginManager.loadBuiltin(KrakenLoaderPlugin.class);
         RuneLite.main(args);
@@ -6,11 +6,17 @@ import com.google.inject.Singleton;
 import com.kraken.api.KrakenClient;
 import com.kraken.api.KrakenCredentialManager;
 import com.kraken.api.model.*;
+import com.kraken.loader.BandwidthGovernor;
+import com.kraken.loader.ByteArrayClassLoader;
 import com.kraken.panel.KrakenPluginListPanel;
 import com.kraken.panel.RootPanel;
 import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.GameState;
+import net.runelite.api.events.GameStateChanged;
+import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
+import net.runelite.client.task.Schedule;
 import net.runelite.client.ui.ClientToolbar;
 import net.runelite.client.ui.NavigationButton;
 import net.runelite.client.util.ImageUtil;
@@ -18,8 +24,11 @@ import net.runelite.client.util.ImageUtil;
 import javax.swing.*;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Slf4j
 @Singleton
@@ -52,10 +61,18 @@ public class KrakenLoaderPlugin extends Plugin {
     @Inject
     private KrakenCredentialManager credentialManager;
 
+    @Inject
+    private BandwidthGovernor bandwidthGovernor;
+
+    // Authentication, plugin downloads and license checks run on this thread rather than RuneLite's shared executor.
+    // The KrakenPluginManager loads and starts the plugins themselves on the Swing event dispatch thread.
+    private ExecutorService syncExecutor;
+
     private NavigationButton navButton;
-    private boolean pluginsSynced = false;
+    private volatile boolean pluginsSynced = false;
     private static final String DISCONNECT_DISCORD_BUTTON_TEXT = "Disconnect Discord";
     private static final String SIGN_IN_DISCORD_BUTTON_TEXT = "Sign-in with Discord";
+    private static final String SYNC_THREAD_NAME = "kraken-sync";
 
     @Override
     protected void startUp() {
@@ -63,16 +80,14 @@ public class KrakenLoaderPlugin extends Plugin {
         krakenPluginManager.getVerifiedPlugins().put("Kraken Plugins", true);
         krakenPluginManager.getPluginMap().put("Kraken Plugins", this);
 
+        // Already running when the launcher started the client, otherwise start computing the hardware id now.
+        HardwareIdService.start();
+
         RootPanel panelRoot = rootPanelProvider.get();
         KrakenPluginListPanel panel = pluginListPanelProvider.get();
-        boolean userAuthenticated = startAuthFlow(panel.getDiscordButton());
-
-        if(userAuthenticated && !pluginsSynced) {
-            syncPlugins();
-            pluginsSynced = true;
-        }
 
-        panel.rebuildPluginList();
+        // Show the plugins from the last session straight away, the list is reconciled once the plugins are loaded.
+        panel.renderSnapshot();
 
         final BufferedImage icon = ImageUtil.loadImageResource(getClass(), "images/kraken.png");
         navButton = NavigationButton.builder()
@@ -83,19 +98,59 @@ public class KrakenLoaderPlugin extends Plugin {
                 .build();
 
         clientToolbar.addNavigation(navButton);
+
+        syncExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, SYNC_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncExecutor.execute(() -> {
+            boolean userAuthenticated = startAuthFlow(panel.getDiscordButton());
+
+            if(userAuthenticated && !pluginsSynced) {
+                syncPlugins();
+                pluginsSynced = true;
+            }
+
+            SwingUtilities.invokeLater(panel::rebuildPluginList);
+        });
     }
 
+    /**
+     * Points the Discord button at the OAuth flow. Safe to call from any thread, the button is updated on the EDT.
+     * @param discordButton JButton the Discord button on the plugin panel
+     */
     private void resetDiscordButton(JButton discordButton) {
-        discordButton.setText(SIGN_IN_DISCORD_BUTTON_TEXT);
-        discordButton.addActionListener(discordOAuthFlow());
+        SwingUtilities.invokeLater(() -> {
+            discordButton.setText(SIGN_IN_DISCORD_BUTTON_TEXT);
+            discordButton.addActionListener(discordOAuthFlow());
+        });
+    }
+
+    /**
+     * Points the Discord button at disconnecting the signed-in user. Safe to call from any thread, the button is
+     * updated on the EDT.
+     * @param user CognitoUser the signed-in user
+     * @param discordButton JButton the Discord button on the plugin panel
+     */
+    private void showDisconnectButton(CognitoUser user, JButton discordButton) {
+        SwingUtilities.invokeLater(() -> {
+            discordButton.addActionListener(e -> disconnectDiscord(user, discordButton));
+            discordButton.setText(DISCONNECT_DISCORD_BUTTON_TEXT);
+        });
     }
 
     public void syncPlugins() {
         CognitoUser user = credentialManager.loadUserCredentials();
-        Map<String, List<PreSignedURL>> preSignedUrls = krakenClient.createPresignedUrl(user.getCredentials());
-        if(preSignedUrls != null) {
-            for (PreSignedURL url : preSignedUrls.get("urls")) {
-                krakenPluginManager.loadPlugin(url);
+
+        // Use the JARs the launcher prefetched while RuneLite was booting when there are any.
+        List<ByteArrayClassLoader> prefetched = KrakenBootstrap.takePrefetchedPlugins();
+        if(prefetched != null) {
+            krakenPluginManager.loadPrefetchedPlugins(prefetched);
+        } else {
+            Map<String, List<PreSignedURL>> preSignedUrls = krakenClient.createPresignedUrl(user.getCredentials());
+            if(preSignedUrls != null) {
+                krakenPluginManager.loadPlugins(preSignedUrls.get("urls"));
             }
         }
 
@@ -104,6 +159,53 @@ public class KrakenLoaderPlugin extends Plugin {
         krakenPluginManager.startKrakenPlugins();
     }
 
+    /**
+     * Periodically checks S3 for updated plugin JARs and reloads any plugin which has changed in place so plugin
+     * fixes can be shipped without restarting the client. The user is re-authenticated first since the credentials
+     * from start up will have expired. The check runs on the sync thread so it never overlaps a sync.
+     */
+    @Schedule(period = 30, unit = ChronoUnit.MINUTES, asynchronous = true)
+    public void checkForPluginUpdates() {
+        if(pluginsSynced) {
+            syncExecutor.execute(this::reloadUpdatedPlugins);
+        }
+    }
+
+    private void reloadUpdatedPlugins() {
+        CognitoUser authUser = credentialManager.authenticateUser();
+        if(authUser == null) {
+            log.info("User auth failed. Skipping plugin update check.");
+            return;
+        }
+        krakenPluginManager.setUser(authUser);
+
+        Map<String, List<PreSignedURL>> preSignedUrls = krakenClient.createPresignedUrl(authUser.getCredentials());
+        if(preSignedUrls == null) {
+            return;
+        }
+
+        List<String> reloaded = krakenPluginManager.reloadPlugins(preSignedUrls.get("urls"));
+        if(!reloaded.isEmpty()) {
+            SwingUtilities.invokeLater(() -> pluginListPanelProvider.get().rebuildPluginList());
+        }
+
+        int retained = krakenPluginManager.getRetainedLoaderCount();
+        if(retained > 0) {
+            log.debug("{} class loader(s) from unloaded plugins have not been reclaimed yet.", retained);
+        }
+    }
+
+    /**
+     * Renews license leases shortly before they expire so plugin licenses keep being verified locally without
+     * waiting on the Kraken API. Renewals run on the sync thread.
+     */
+    @Schedule(period = 10, unit = ChronoUnit.MINUTES, asynchronous = true)
+    public void renewLicenseLeases() {
+        if(pluginsSynced) {
+            syncExecutor.execute(krakenPluginManager::renewLicenseLeases);
+        }
+    }
+
     /**
      * Starts the general Auth flow for a user. It goes as follows:
      * - Attempt to see if creds are already on disk
@@ -118,12 +220,13 @@ public class KrakenLoaderPlugin extends Plugin {
             log.info("No creds on disk. User has not gone through discord. OAuth 2.0 flow.");
             // The user has not gone through the OAuth 2.0 flow with discord yet.
         } else {
-            // The user has linked their discord, attempt to authenticate creds on disk.
-            CognitoUser authUser = krakenClient.authenticate(new CognitoAuth(user.getDiscordId(), user.getCredentials().getRefreshToken()));
-            if(authUser.getDiscordId() != null && authUser.getDiscordUsername() != null) {
-                credentialManager.persistUserCredentials(authUser);
-                discordButton.addActionListener(e -> disconnectDiscord(authUser, discordButton));
-                discordButton.setText(DISCONNECT_DISCORD_BUTTON_TEXT);
+            // The user has linked their discord, attempt to authenticate creds on disk. The launcher has usually
+            // authenticated already while RuneLite was booting.
+            CognitoUser authUser = KrakenBootstrap.isStarted()
+                    ? KrakenBootstrap.getAuthenticatedUser()
+                    : credentialManager.authenticateUser();
+            if(authUser != null) {
+                showDisconnectButton(authUser, discordButton);
                 log.info("User: {} has been successfully authenticated.", user.getDiscordUsername());
                 return true;
             }
@@ -143,15 +246,14 @@ public class KrakenLoaderPlugin extends Plugin {
             log.info("Starting OAuth 2.0 flow with Discord.");
             JButton btn = (JButton) e.getSource();
             discordAuth.getDiscordUser()
-                    .thenAccept(user -> {
+                    .thenAcceptAsync(user -> {
                         log.info("Discord OAuth flow completed. User email = {}. Creating new cognito user.", user.getEmail());
-                        CognitoUser cognitoUser = krakenClient.createUser(new CreateUserRequest(user, HardwareUtils.getHardwareId()));
+                        CognitoUser cognitoUser = krakenClient.createUser(new CreateUserRequest(user, HardwareIdService.getHardwareId()));
                         credentialManager.persistUserCredentials(cognitoUser);
-                        btn.addActionListener(evt -> disconnectDiscord(cognitoUser, btn));
-                        btn.setText(DISCONNECT_DISCORD_BUTTON_TEXT);
+                        showDisconnectButton(cognitoUser, btn);
 
                         syncPlugins();
-                    })
+                    }, syncExecutor)
                     .exceptionally(throwable -> {
                         log.error("Authentication failed: {}", throwable.getMessage());
                         throwable.printStackTrace();
@@ -168,14 +270,25 @@ public class KrakenLoaderPlugin extends Plugin {
     private void disconnectDiscord(CognitoUser user, JButton discordButton) {
         krakenClient.updateUserStatus(user.getDiscordId(), false);
         user.setAccountEnabled(false);
+        // Make sure other client processes don't reuse the credentials of the disconnected account.
+        user.setAuthenticatedAt(0);
         credentialManager.persistUserCredentials(user);
         resetDiscordButton(discordButton);
     }
 
 
+    @Subscribe
+    public void onGameStateChanged(GameStateChanged event) {
+        // Slow background plugin downloads down while the client is talking to the game servers.
+        GameState state = event.getGameState();
+        bandwidthGovernor.setGameActive(state == GameState.LOGGING_IN || state == GameState.LOADING
+                || state == GameState.LOGGED_IN || state == GameState.HOPPING);
+    }
+
     @Override
     protected void shutDown() {
 		clientToolbar.removeNavigation(navButton);
+		syncExecutor.shutdownNow();
     }
 
 }
\ No newline at end of file
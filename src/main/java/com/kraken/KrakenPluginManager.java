@@ -3,11 +3,19 @@ package com.kraken;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.kraken.api.KrakenClient;
+import com.kraken.api.KrakenCredentialManager;
+import com.kraken.api.LicenseCache;
+import com.kraken.api.LicenseLeaseStore;
+import com.kraken.api.model.CognitoCredentials;
 import com.kraken.api.model.CognitoUser;
+import com.kraken.api.model.LicenseLease;
 import com.kraken.api.model.PreSignedURL;
 import com.kraken.api.model.ValidateLicenseRequest;
+import com.kraken.loader.BandwidthGovernor;
 import com.kraken.loader.ByteArrayClassLoader;
+import com.kraken.loader.CompressedClassStore;
 import com.kraken.loader.JarResourceLoader;
+import com.kraken.loader.SharedClassLoader;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -15,13 +23,27 @@ import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigDescriptor;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.plugins.Plugin;
+import net.runelite.client.plugins.PluginInstantiationException;
 import net.runelite.client.plugins.PluginManager;
 
-import java.io.IOException;
+import javax.swing.SwingUtilities;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
 
 @Slf4j
 @Singleton
@@ -39,57 +61,321 @@ public class KrakenPluginManager {
     @Inject
     private KrakenClient krakenClient;
 
+    @Inject
+    private BandwidthGovernor bandwidthGovernor;
+
+    @Inject
+    private LicenseCache licenseCache;
+
+    @Inject
+    private LicenseLeaseStore leaseStore;
+
+    @Inject
+    private KrakenCredentialManager credentialManager;
+
+    // Read by the Swing panels while the sync thread loads and starts plugins.
     @Getter
-    private final Map<String, Plugin> pluginMap = new HashMap<>();
+    private final Map<String, Plugin> pluginMap = new ConcurrentHashMap<>();
 
     private final List<Class<?>> pluginClasses = new ArrayList<>();
 
+    // Class loaders of plugins which have been unloaded, used to verify the loaders are garbage collected.
+    private final List<WeakReference<ClassLoader>> retiredLoaders = new ArrayList<>();
+
     // Tracks plugins which have passed the license verification.
     @Getter
-    private final Map<String, Boolean> verifiedPlugins = new HashMap<>();
+    private final Map<String, Boolean> verifiedPlugins = new ConcurrentHashMap<>();
 
     private static final String PACKAGE_NAME = "com/krakenplugins";
     private static final String PLUGIN_BASE_CLASS_NAME = "net.runelite.client.plugins.Plugin";
 
+    // Maximum number of plugin JARs which are downloaded and loaded at the same time.
+    private static final int SYNC_PARALLELISM = 4;
+    private static final String SYNC_THREAD_NAME = "kraken-plugin-sync";
+
     @Getter
     @Setter
-    private CognitoUser user;
+    private volatile CognitoUser user;
+
+    // True once the plugins for the signed-in user have been loaded and started.
+    @Getter
+    private volatile boolean pluginsStarted = false;
+
+
+    /**
+     * Downloads and loads every plugin JAR concurrently using a bounded pool of sync threads. A failure in one JAR
+     * is logged and isolated to that JAR so the remaining plugins still load. Once every JAR is loaded, classes which
+     * are identical across JARs are moved into a shared class loader. Discovered plugin classes are then merged
+     * into the plugin class list in the same order as the provided URLs regardless of which download finishes first.
+     * @param urls List of PreSignedURL's, one for each plugin JAR the user has purchased.
+     */
+    public void loadPlugins(List<PreSignedURL> urls) {
+        if(urls == null || urls.isEmpty()) {
+            return;
+        }
+
+        List<ByteArrayClassLoader> loaders = downloadPlugins(urls);
+        if (loaders == null) {
+            return;
+        }
+        loadPrefetchedPlugins(loaders);
+    }
+
+    /**
+     * Loads plugins from JARs which were already downloaded, i.e. by the KrakenBootstrap while RuneLite was booting.
+     * Classes which are identical across JARs are moved into a shared class loader and the discovered plugin classes
+     * are added to the plugin class list in the order of the given loaders.
+     * @param loaders List of class loaders, one for each downloaded plugin JAR.
+     */
+    public void loadPrefetchedPlugins(List<ByteArrayClassLoader> loaders) {
+        if (loaders.size() > 1) {
+            SharedClassLoader shared = SharedClassLoader.deduplicate(loaders, PACKAGE_NAME, PLUGIN_BASE_CLASS_NAME);
+            log.info("Shared {} identical class{} across {} plugin JARs, saving {} KB of bytecode.", shared.getSharedClassCount(),
+                    shared.getSharedClassCount() == 1 ? "" : "es", loaders.size(), shared.getBytesSaved() / 1024);
+        }
 
+        for (ByteArrayClassLoader loader : loaders) {
+            this.pluginClasses.addAll(discoverPluginClasses(loader));
+        }
+
+        if (CompressedClassStore.getUncompressedBytes() > 0) {
+            log.info("Holding {} KB of undefined plugin classes compressed to {} KB.",
+                    CompressedClassStore.getUncompressedBytes() / 1024, CompressedClassStore.getCompressedBytes() / 1024);
+        }
+    }
 
     /**
-     * Iterate through each class which begins with com/krakenplugins in the JAR file, load each class
-     * check its superclass for one that extends the RuneLite Plugin class. If superclass matches then add the class
-     *  to a list. The Class will be loaded and cast to a Plugin object when it is passed to RuneLite
+     * Loads a single plugin JAR and adds any discovered plugin classes to the list of classes to start.
      * @param url PreSignedURL A presigned URL containing the JAR file for the plugin in S3.
      */
     public void loadPlugin(PreSignedURL url) {
-        try(ByteArrayClassLoader loader = jarResourceLoader.loadJarFromSignedUrl(PACKAGE_NAME, url)) {
+        loadPlugins(Collections.singletonList(url));
+    }
 
-            // Iterate through each class which begins with com/krakenplugins in the JAR file, load each class
-            // check its superclass for one that extends the RuneLite Plugin class. If superclass matches then add the class
-            // to a list. The list
-            for (String className : loader.getClassData().keySet()) {
-                try {
-                    Class<?> clazz = loader.loadClass(className);
-                    if (clazz.getSuperclass() != null) {
-                        if (clazz.getSuperclass().getName().equals(PLUGIN_BASE_CLASS_NAME)) {
-                            log.debug("Main Plugin Class located: {}", className);
-                            this.pluginClasses.add(clazz);
-                        }
+    /**
+     * Iterate through each class which begins with com/krakenplugins in the JAR file and read its superclass from
+     * the class file header. Only classes which extend the RuneLite Plugin class are loaded here, every other class
+     * is defined lazily the first time the plugin uses it. The Class will be cast to a Plugin object when it is passed to RuneLite
+     * @param loader ByteArrayClassLoader The class loader for a plugin JAR.
+     * @return List of classes which extend the RuneLite Plugin class.
+     */
+    private List<Class<?>> discoverPluginClasses(ByteArrayClassLoader loader) {
+        List<Class<?>> discovered = new ArrayList<>();
+        for (String className : loader.getClassNames()) {
+            if (!PLUGIN_BASE_CLASS_NAME.equals(loader.getSuperclassName(className))) {
+                continue;
+            }
+
+            try {
+                log.debug("Main Plugin Class located: {}", className);
+                discovered.add(loader.loadClass(className));
+            } catch (ClassNotFoundException e) {
+                log.error("Class: {} could not be found. Error = {}", className, e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return discovered;
+    }
+
+    /**
+     * Downloads each plugin JAR on the sync thread pool and returns the resulting class loaders in URL order. JARs
+     * which fail to download are logged and skipped.
+     * @param urls List of PreSignedURL's for the plugin JARs
+     * @return List of class loaders or null if the thread was interrupted while waiting for the downloads.
+     */
+    private List<ByteArrayClassLoader> downloadPlugins(List<PreSignedURL> urls) {
+        long startBytes = bandwidthGovernor.getTotalBytes();
+        long startTime = System.currentTimeMillis();
+        List<ByteArrayClassLoader> loaders = jarResourceLoader.loadJarsFromSignedUrls(PACKAGE_NAME, urls, SYNC_PARALLELISM, SYNC_THREAD_NAME);
+        if (loaders == null) {
+            return null;
+        }
+
+        long downloaded = bandwidthGovernor.getTotalBytes() - startBytes;
+        if (downloaded > 0) {
+            long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            log.info("Downloaded {} KB of plugin JARs in {} ms (average {} KB/s, {} KB/s over the last second, limit {}).",
+                    downloaded / 1024, elapsed, downloaded * 1000 / elapsed / 1024, bandwidthGovernor.getThroughput() / 1024,
+                    bandwidthGovernor.getRateLimit() > 0 ? bandwidthGovernor.getRateLimit() / 1024 + " KB/s" : "none");
+        }
+        return loaders;
+    }
+
+    /**
+     * Reloads every plugin whose JAR has changed since it was loaded without restarting the client. Each JAR is
+     * downloaded (or revalidated against the JAR cache) and compared with the hash of the JAR the running plugin was
+     * loaded from. Changed plugins are stopped, removed from RuneLite and replaced by plugins loaded from the new JAR.
+     * JARs which were not loaded before, i.e. newly purchased plugins, are loaded and started as well.
+     *
+     * The new plugins are loaded and their licenses resolved before the running plugins are touched, so the Swing event
+     * dispatch thread only has to stop the old plugins and start the new ones.
+     *
+     * Reloaded JARs are not deduplicated against the other plugin JARs so that the old class loader is not kept alive
+     * by shared classes. Old class loaders are tracked through weak references, see getRetainedLoaderCount().
+     * @param urls List of PreSignedURL's, one for each plugin JAR the user has purchased.
+     * @return List of the names of plugins which were reloaded or newly loaded.
+     */
+    public List<String> reloadPlugins(List<PreSignedURL> urls) {
+        List<String> reloaded = new ArrayList<>();
+        if(user == null || urls == null || urls.isEmpty()) {
+            return reloaded;
+        }
+
+        List<ByteArrayClassLoader> loaders = downloadPlugins(urls);
+        if (loaders == null) {
+            return reloaded;
+        }
+
+        // Resolved before any replacement is handed to RuneLite so a failure leaves the running plugins untouched.
+        String hardwareId = resolveHardwareId();
+        if (hardwareId == null) {
+            return reloaded;
+        }
+
+        Map<String, List<Plugin>> replacements = new LinkedHashMap<>();
+        for (ByteArrayClassLoader loader : loaders) {
+            List<Plugin> current = findPlugins(loader.getCacheKey());
+            if (!current.isEmpty() && isUnchanged(current, loader.getJarHash())) {
+                continue;
+            }
+
+            List<Plugin> loaded = loadOnEventDispatchThread(discoverPluginClasses(loader));
+            if (loaded != null) {
+                replacements.put(loader.getCacheKey(), loaded);
+            }
+        }
+
+        if (replacements.isEmpty()) {
+            return reloaded;
+        }
+
+        Map<Plugin, String> licenseKeys = new HashMap<>();
+        Map<Plugin, Boolean> licensed = new HashMap<>();
+        List<Plugin> plugins = new ArrayList<>();
+        replacements.values().forEach(plugins::addAll);
+        Map<Plugin, String> unconfirmed = resolveLicenses(plugins, hardwareId, (plugin, licenseKey, valid) -> {
+            licenseKeys.put(plugin, licenseKey);
+            licensed.put(plugin, valid);
+        });
+
+        runOnEventDispatchThread(() -> {
+            for (Map.Entry<String, List<Plugin>> replacement : replacements.entrySet()) {
+                findPlugins(replacement.getKey()).forEach(this::unloadPlugin);
+                for (Plugin plugin : replacement.getValue()) {
+                    // Every replacement is tracked, even one without a license decision, so it can be unloaded again.
+                    if (startLicensedPlugin(plugin, licenseKeys.get(plugin), Boolean.TRUE.equals(licensed.get(plugin)))) {
+                        reloaded.add(plugin.getName());
                     }
-                } catch (ClassNotFoundException e) {
-                    log.error("Class: {} could not be found. Error = {}", className, e.getMessage());
-                    e.printStackTrace();
                 }
             }
-        } catch (IOException e) {
-            log.error("IOException thrown while attempting to load JAR from signed URL: {}", e.getMessage());
+        });
+
+        if (!unconfirmed.isEmpty()) {
+            confirmLicenses(unconfirmed, hardwareId);
+        }
+
+        if (!reloaded.isEmpty()) {
+            log.info("Reloaded {} Kraken plugin{}: {}", reloaded.size(), reloaded.size() > 1 ? "s" : "", reloaded);
+        }
+        return reloaded;
+    }
+
+    /**
+     * Stops a plugin and removes every reference the client holds to it so its class loader can be garbage collected.
+     * Stopping the plugin unregisters it from the EventBus and removing it drops it from RuneLite's plugin list.
+     * @param plugin Plugin the Kraken plugin to unload
+     */
+    private void unloadPlugin(Plugin plugin) {
+        try {
+            pluginManager.stopPlugin(plugin);
+        } catch (PluginInstantiationException e) {
+            log.error("Failed to stop plugin: {}. Error = {}", plugin.getName(), e.getMessage());
             e.printStackTrace();
         }
+        pluginManager.remove(plugin);
+        pluginMap.remove(plugin.getName());
+        verifiedPlugins.remove(plugin.getName());
+        retiredLoaders.add(new WeakReference<>(plugin.getClass().getClassLoader()));
+        log.debug("Unloaded plugin: {}", plugin.getName());
     }
 
+    /**
+     * Returns the number of class loaders from unloaded plugins which have not been garbage collected yet. A loader
+     * which stays reachable long after its plugin was unloaded (and its classes' metaspace with it) is leaked,
+     * usually by a thread, listener or static field the plugin did not clean up in shutDown().
+     * @return int the number of unloaded plugin class loaders which are still reachable.
+     */
+    public int getRetainedLoaderCount() {
+        retiredLoaders.removeIf(ref -> ref.get() == null);
+        return retiredLoaders.size();
+    }
+
+    private List<Plugin> findPlugins(String cacheKey) {
+        List<Plugin> plugins = new ArrayList<>();
+        for (Plugin plugin : pluginMap.values()) {
+            ClassLoader classLoader = plugin.getClass().getClassLoader();
+            if (classLoader instanceof ByteArrayClassLoader && Objects.equals(((ByteArrayClassLoader) classLoader).getCacheKey(), cacheKey)) {
+                plugins.add(plugin);
+            }
+        }
+        return plugins;
+    }
+
+    private static boolean isUnchanged(List<Plugin> plugins, String jarHash) {
+        for (Plugin plugin : plugins) {
+            if (!Objects.equals(((ByteArrayClassLoader) plugin.getClass().getClassLoader()).getJarHash(), jarHash)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Checks if a license is valid, using the license lease held for it or the cached result when the license was
+     * validated moments ago.
+     * @param validateLicenseRequest ValidateLicenseRequest the license to check
+     * @return boolean true if the license is valid.
+     */
     public boolean hasValidLicense(ValidateLicenseRequest validateLicenseRequest) {
-        return krakenClient.validateLicense(validateLicenseRequest);
+        String licenseKey = validateLicenseRequest.getLicenseKey();
+        String hardwareId = validateLicenseRequest.getHardwareId();
+        if(leaseStore.getValidLease(licenseKey, hardwareId) != null) {
+            return true;
+        }
+
+        Boolean cached = licenseCache.getFresh(licenseKey, hardwareId, user.getDiscordId());
+        if(cached != null) {
+            return cached;
+        }
+        return resolveLicense(licenseKey, hardwareId, user.getDiscordId(), krakenClient.checkLicense(validateLicenseRequest));
+    }
+
+    /**
+     * Records the result of a license validation in the license cache and decides if the plugin may run. Only when
+     * the Kraken API could not be reached is the license treated as valid if it was valid within the offline grace
+     * period. A license the API rejected never gets the grace period.
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id of this machine
+     * @param userId String the discord id of the user
+     * @param valid Boolean the validation result or null if the request failed or the API returned a server error.
+     * @return boolean true if the plugin may run.
+     */
+    private boolean resolveLicense(String licenseKey, String hardwareId, String userId, Boolean valid) {
+        if(valid == null) {
+            if(licenseCache.isWithinGracePeriod(licenseKey, hardwareId, userId)) {
+                log.warn("Kraken API could not be reached. Using the cached result for license: {}", licenseKey);
+                return true;
+            }
+            return false;
+        }
+
+        if(valid) {
+            licenseCache.recordValid(licenseKey, hardwareId, userId);
+        } else {
+            licenseCache.recordInvalid(licenseKey, hardwareId, userId);
+        }
+        return valid;
     }
 
      /**
@@ -104,35 +390,325 @@ public class KrakenPluginManager {
 
         try {
             // Load, enable, and start the plugins with RuneLite, so they can be registered with the EventBus
-            List<Plugin> plugins = pluginManager.loadPlugins(pluginClasses, null);
-
-            for (Plugin plugin : plugins) {
-                String licenseKey;
-                Config config = pluginManager.getPluginConfigProxy(plugin);
-                ConfigDescriptor configDescriptor = config == null ? null : configManager.getConfigDescriptor(config);
-
-                if(configDescriptor != null) {
-                    licenseKey = configManager.getConfiguration(configDescriptor.getGroup().value(), "licenseKey");
-                } else {
-                    log.error("Failed to get license key from plugin config for: {}", plugin.getName());
-                    continue;
-                }
-
-                ValidateLicenseRequest req = new ValidateLicenseRequest(user.getCredentials(), licenseKey, HardwareUtils.getHardwareId());
-                if(hasValidLicense(req)) {
-                    verifiedPlugins.put(plugin.getName(), true);
-                    pluginManager.startPlugin(plugin);
-                } else {
-                    log.info("License key provided: {} is not valid.", licenseKey);
-                    verifiedPlugins.put(plugin.getName(), false);
-                }
-                pluginMap.put(plugin.getName(), plugin);
-                pluginManager.setPluginEnabled(plugin, true);
+            List<Plugin> plugins = loadOnEventDispatchThread(pluginClasses);
+            if (plugins == null) {
+                return;
             }
+
+            // The plugins are tracked through the plugin map from here on, dropping the classes allows the plugins
+            // to be unloaded later.
+            pluginClasses.clear();
+
+            startKrakenPlugins(plugins);
             log.info("Loaded {} Kraken plugin{}", plugins.size(), plugins.size() > 1 ? "s" : "");
+            pluginsStarted = true;
         } catch(Exception e) {
             log.error("Exception thrown while attempting to invoke ExternalPluginManager refresh. Error = {}", e.getMessage());
             e.printStackTrace();
         }
     }
+
+    /**
+     * Validates the licenses for loaded plugins and starts the plugins whose license is valid, each as soon as its own
+     * license has been validated. See resolveLicenses(). A plugin which fails to start does not keep the others from
+     * starting.
+     * @param plugins List of Kraken plugins which have been loaded by RuneLite's plugin manager
+     */
+    private void startKrakenPlugins(List<Plugin> plugins) {
+        String hardwareId = HardwareIdService.getHardwareId();
+        Map<Plugin, String> unconfirmed = resolveLicenses(plugins, hardwareId, (plugin, licenseKey, licensed) ->
+                runOnEventDispatchThread(() -> startLicensedPlugin(plugin, licenseKey, licensed)));
+        if(!unconfirmed.isEmpty()) {
+            confirmLicenses(unconfirmed, hardwareId);
+        }
+    }
+
+    /**
+     * Receives the license decision for a plugin from resolveLicenses(). The license key is null when the plugin has
+     * no config or none has been entered in the plugin's config yet.
+     */
+    private interface LicenseDecision {
+        void accept(Plugin plugin, String licenseKey, boolean licensed);
+    }
+
+    /**
+     * Decides which of the loaded plugins may run. The licenses of every plugin are validated concurrently, with a
+     * single batch request when the API supports it, and the decision for each plugin is passed on as soon as its own
+     * license has been validated. Licenses with a valid license lease or a fresh result in the license cache are not
+     * validated at all, unless the lease is due for renewal. Plugins whose license was validated recently on this
+     * machine are allowed to run immediately and their licenses should be confirmed in the background once they run.
+     * @param plugins List of Kraken plugins which have been loaded by RuneLite's plugin manager
+     * @param hardwareId String the hardware id of this machine
+     * @param decision LicenseDecision called on this thread with each plugin and whether it may run, never from a
+     *                 license future's callback
+     * @return Map of each plugin which was allowed to run before its license was confirmed to its license key, see
+     * confirmLicenses().
+     */
+    private Map<Plugin, String> resolveLicenses(List<Plugin> plugins, String hardwareId, LicenseDecision decision) {
+        Map<Plugin, String> pending = new LinkedHashMap<>();
+        Map<Plugin, String> optimistic = new LinkedHashMap<>();
+
+        for (Plugin plugin : plugins) {
+            ConfigDescriptor configDescriptor = getConfigDescriptor(plugin);
+            if(configDescriptor == null) {
+                log.error("Failed to get license key from plugin config for: {}", plugin.getName());
+                decision.accept(plugin, null, false);
+                continue;
+            }
+
+            String licenseKey = getLicenseKey(configDescriptor);
+            if(licenseKey == null) {
+                // Listed as unverified so the user can enter a license key in the plugin's config.
+                decision.accept(plugin, null, false);
+                continue;
+            }
+
+            LicenseLease lease = leaseStore.getValidLease(licenseKey, hardwareId);
+            if(lease != null) {
+                decision.accept(plugin, licenseKey, true);
+                if(LicenseLeaseStore.needsRenewal(lease)) {
+                    // Validating the license again renews its lease.
+                    optimistic.put(plugin, licenseKey);
+                }
+                continue;
+            }
+
+            Boolean cached = licenseCache.getFresh(licenseKey, hardwareId, user.getDiscordId());
+            if(cached != null) {
+                decision.accept(plugin, licenseKey, cached);
+            } else if(licenseCache.isRecentlyValidated(licenseKey, hardwareId, user.getDiscordId())) {
+                // Start right away and confirm the license in the background, the plugin is stopped if it was revoked.
+                decision.accept(plugin, licenseKey, true);
+                optimistic.put(plugin, licenseKey);
+            } else {
+                pending.put(plugin, licenseKey);
+            }
+        }
+
+        if(!pending.isEmpty()) {
+            // Validate every license concurrently and start each plugin on this thread as soon as its own result arrives.
+            Map<String, CompletableFuture<Boolean>> results = krakenClient.checkLicensesAsync(user.getCredentials(), hardwareId, distinct(pending.values()));
+            BlockingQueue<Map.Entry<Plugin, Boolean>> completed = new LinkedBlockingQueue<>();
+            for (Map.Entry<Plugin, String> entry : pending.entrySet()) {
+                Plugin plugin = entry.getKey();
+                results.get(entry.getValue()).whenComplete((valid, throwable) ->
+                        completed.add(new AbstractMap.SimpleImmutableEntry<>(plugin, valid)));
+            }
+
+            for (int i = 0; i < pending.size(); i++) {
+                Map.Entry<Plugin, Boolean> result;
+                try {
+                    result = completed.take();
+                } catch (InterruptedException e) {
+                    log.error("Interrupted while waiting for plugin licenses to be validated. Error = {}", e.getMessage());
+                    Thread.currentThread().interrupt();
+                    return optimistic;
+                }
+
+                Plugin plugin = result.getKey();
+                String licenseKey = pending.get(plugin);
+                decision.accept(plugin, licenseKey, resolveLicense(licenseKey, hardwareId, user.getDiscordId(), result.getValue()));
+            }
+        }
+        return optimistic;
+    }
+
+    /**
+     * Starts a plugin whose license is valid and lists every plugin in the plugin panel. Must be called on the Swing
+     * event dispatch thread.
+     * @return boolean true if the plugin was started or listed, false if it failed to start.
+     */
+    private boolean startLicensedPlugin(Plugin plugin, String licenseKey, boolean licensed) {
+        if(licensed) {
+            verifiedPlugins.put(plugin.getName(), true);
+            try {
+                pluginManager.startPlugin(plugin);
+            } catch (PluginInstantiationException e) {
+                log.error("Failed to start plugin: {}. Error = {}", plugin.getName(), e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+        } else {
+            if(licenseKey == null) {
+                log.info("No license key has been entered for plugin: {}.", plugin.getName());
+            } else {
+                log.info("License key provided: {} is not valid.", licenseKey);
+            }
+            verifiedPlugins.put(plugin.getName(), false);
+        }
+        pluginMap.put(plugin.getName(), plugin);
+        pluginManager.setPluginEnabled(plugin, true);
+        return true;
+    }
+
+    /**
+     * Instantiates plugins through RuneLite's plugin manager on the Swing event dispatch thread.
+     * @param classes List of plugin classes
+     * @return List of the instantiated plugins or null if they could not be instantiated.
+     */
+    private List<Plugin> loadOnEventDispatchThread(List<Class<?>> classes) {
+        List<Plugin> plugins = new ArrayList<>();
+        boolean[] loaded = new boolean[1];
+        runOnEventDispatchThread(() -> {
+            try {
+                plugins.addAll(pluginManager.loadPlugins(classes, null));
+                loaded[0] = true;
+            } catch (PluginInstantiationException e) {
+                log.error("Failed to instantiate plugins. Error = {}", e.getMessage());
+                e.printStackTrace();
+            }
+        });
+        return loaded[0] ? plugins : null;
+    }
+
+    /**
+     * Runs a task on the Swing event dispatch thread and waits for it to finish. RuneLite expects plugins to be
+     * loaded, started and stopped on the event dispatch thread, and never from a license future's callback. The task
+     * runs directly when this is called on the event dispatch thread.
+     * @param task Runnable the task to run
+     */
+    private static void runOnEventDispatchThread(Runnable task) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+            return;
+        }
+
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for the event dispatch thread. Error = {}", e.getMessage());
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            log.error("Exception thrown on the event dispatch thread. Error = {}", e.getCause().getMessage());
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * Waits for the hardware id of this machine.
+     * @return String the hardware id or null if it could not be computed or the thread was interrupted.
+     */
+    private static String resolveHardwareId() {
+        try {
+            return HardwareIdService.getHardwareIdAsync().get();
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for the hardware id. Error = {}", e.getMessage());
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Failed to compute the hardware id. Error = {}", e.getCause().getMessage());
+            e.getCause().printStackTrace();
+        }
+        return null;
+    }
+
+    private static List<String> distinct(Collection<String> licenseKeys) {
+        return new ArrayList<>(new LinkedHashSet<>(licenseKeys));
+    }
+
+    /**
+     * @param plugin Plugin a Kraken plugin
+     * @return ConfigDescriptor the descriptor of the plugin's config or null if the plugin has no config.
+     */
+    private ConfigDescriptor getConfigDescriptor(Plugin plugin) {
+        Config config = pluginManager.getPluginConfigProxy(plugin);
+        return config == null ? null : configManager.getConfigDescriptor(config);
+    }
+
+    /**
+     * Reads the license key a user entered in a plugin's config.
+     * @param configDescriptor ConfigDescriptor the descriptor of the plugin's config
+     * @return String the license key or null if no license key has been entered yet.
+     */
+    private String getLicenseKey(ConfigDescriptor configDescriptor) {
+        String licenseKey = configManager.getConfiguration(configDescriptor.getGroup().value(), "licenseKey");
+        return licenseKey == null || licenseKey.isEmpty() ? null : licenseKey;
+    }
+
+    /**
+     * Renews the license leases of running plugins which are close to expiring so their licenses keep being verified
+     * locally. Validating a license with the Kraken API issues a new lease, plugins whose license has been revoked are
+     * stopped. The user is re-authenticated first since the credentials from start up will have expired, leases are
+     * not renewed when authentication fails.
+     */
+    public void renewLicenseLeases() {
+        if(user == null || !pluginsStarted) {
+            return;
+        }
+
+        String hardwareId = HardwareIdService.getHardwareId();
+        Map<Plugin, String> renewals = new LinkedHashMap<>();
+        for (Plugin plugin : new ArrayList<>(pluginMap.values())) {
+            if(plugin instanceof KrakenLoaderPlugin || !Boolean.TRUE.equals(verifiedPlugins.get(plugin.getName()))) {
+                continue;
+            }
+
+            ConfigDescriptor configDescriptor = getConfigDescriptor(plugin);
+            String licenseKey = configDescriptor == null ? null : getLicenseKey(configDescriptor);
+            LicenseLease lease = licenseKey == null ? null : leaseStore.getValidLease(licenseKey, hardwareId);
+            if(lease != null && LicenseLeaseStore.needsRenewal(lease)) {
+                renewals.put(plugin, licenseKey);
+            }
+        }
+
+        if(renewals.isEmpty()) {
+            return;
+        }
+
+        CognitoUser authUser = credentialManager.authenticateUser();
+        if(authUser == null) {
+            log.info("User auth failed. Skipping license lease renewal.");
+            return;
+        }
+        setUser(authUser);
+
+        log.debug("Renewing {} license lease(s).", renewals.size());
+        confirmLicenses(renewals, hardwareId);
+    }
+
+    /**
+     * Asynchronously validates the licenses of plugins which were started optimistically or whose lease is renewed. If the Kraken
+     * API reports a license is no longer valid the plugin is stopped and marked unverified. If the API cannot be
+     * reached the plugins keep running and their licenses are confirmed again on the next start.
+     * @param plugins Map of each plugin which was started before its license was confirmed to its license key
+     * @param hardwareId String the hardware id the licenses are bound to
+     */
+    private void confirmLicenses(Map<Plugin, String> plugins, String hardwareId) {
+        CognitoCredentials credentials = user.getCredentials();
+        String userId = user.getDiscordId();
+        Map<String, CompletableFuture<Boolean>> results = krakenClient.checkLicensesAsync(credentials, hardwareId, distinct(plugins.values()));
+        for (Map.Entry<Plugin, String> entry : plugins.entrySet()) {
+            Plugin plugin = entry.getKey();
+            String licenseKey = entry.getValue();
+            results.get(licenseKey).thenAccept(valid -> {
+                if(valid == null) {
+                    log.warn("Could not confirm the license for: {}. It will be confirmed on the next start.", plugin.getName());
+                    return;
+                }
+
+                if(valid) {
+                    licenseCache.recordValid(licenseKey, hardwareId, userId);
+                    return;
+                }
+
+                log.info("License for: {} has been revoked. Stopping plugin.", plugin.getName());
+                licenseCache.recordInvalid(licenseKey, hardwareId, userId);
+                runOnEventDispatchThread(() -> stopRevokedPlugin(plugin));
+            });
+        }
+    }
+
+    /**
+     * Stops a plugin whose license has been revoked and marks it unverified. Must be called on the Swing event
+     * dispatch thread, see runOnEventDispatchThread().
+     * @param plugin Plugin the Kraken plugin whose license was revoked
+     */
+    private void stopRevokedPlugin(Plugin plugin) {
+        verifiedPlugins.put(plugin.getName(), false);
+        try {
+            pluginManager.stopPlugin(plugin);
+        } catch (PluginInstantiationException e) {
+            log.error("Failed to stop plugin: {}. Error = {}", plugin.getName(), e.getMessage());
+            e.printStackTrace();
+        }
+    }
 }
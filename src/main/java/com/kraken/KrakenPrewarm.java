@@ -0,0 +1,113 @@
+package com.kraken;
+
+import com.google.inject.Inject;
+import com.kraken.api.KrakenClient;
+import com.kraken.api.KrakenCredentialManager;
+import com.kraken.api.model.CognitoUser;
+import com.kraken.api.model.PreSignedURL;
+import com.kraken.loader.ByteArrayClassLoader;
+import com.kraken.loader.JarResourceLoader;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless prewarm of the plugin JAR cache. Authenticates with the credentials stored in creds.json, downloads and
+ * verifies every plugin JAR the user owns into the JAR cache and builds the Kraken pack for each JAR. Clients started
+ * afterward load their plugins from the cache without downloading anything. Nothing is loaded into RuneLite and no
+ * Swing component is created so this can be run from a terminal or a scheduled job:
+ *
+ * java -jar kraken-client.jar prewarm
+ *
+ * The individual steps are also used by KrakenBootstrap to prefetch plugins while RuneLite boots.
+ */
+@Slf4j
+public class KrakenPrewarm {
+    public static final String COMMAND = "prewarm";
+
+    private static final String PACKAGE_NAME = "com/krakenplugins";
+
+    // Maximum number of plugin JARs which are downloaded at the same time.
+    private static final int DOWNLOAD_PARALLELISM = 4;
+    private static final String PREWARM_THREAD_NAME = "kraken-prewarm";
+
+    @Inject
+    private KrakenCredentialManager credentialManager;
+
+    @Inject
+    private KrakenClient krakenClient;
+
+    @Inject
+    private JarResourceLoader jarResourceLoader;
+
+    /**
+     * Runs the prewarm.
+     * @return boolean True if every plugin JAR is in the cache, false if authentication failed or any JAR could not be
+     * downloaded.
+     */
+    public boolean run() {
+        CognitoUser authUser = authenticate();
+        if(authUser == null) {
+            log.error("Unable to prewarm the plugin cache without an authenticated user.");
+            return false;
+        }
+
+        List<PreSignedURL> urls = fetchPresignedUrls(authUser);
+        if(urls == null) {
+            log.error("Failed to fetch presigned URLs. Unable to prewarm the plugin cache.");
+            return false;
+        }
+
+        if(urls.isEmpty()) {
+            log.info("No plugin JARs to prewarm.");
+            return true;
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<ByteArrayClassLoader> loaders = download(urls);
+        if(loaders == null) {
+            return false;
+        }
+
+        // The class loaders are discarded, only the cached JARs and packs are kept.
+        log.info("Prewarmed {} of {} plugin JAR{} in {} ms.", loaders.size(), urls.size(), urls.size() > 1 ? "s" : "",
+                System.currentTimeMillis() - startTime);
+        return loaders.size() == urls.size();
+    }
+
+    /**
+     * Authenticates the user stored in creds.json and persists the refreshed credentials.
+     * @return CognitoUser the authenticated user or null if there are no credentials on disk or authentication failed.
+     */
+    public CognitoUser authenticate() {
+        CognitoUser authUser = credentialManager.authenticateUser();
+        if(authUser == null) {
+            log.info("No credentials on disk or user auth failed.");
+        }
+        return authUser;
+    }
+
+    /**
+     * Fetches a presigned URL for each plugin JAR the user has purchased.
+     * @param authUser CognitoUser an authenticated user
+     * @return List of PreSignedURL's or null if the URLs could not be fetched.
+     */
+    public List<PreSignedURL> fetchPresignedUrls(CognitoUser authUser) {
+        Map<String, List<PreSignedURL>> preSignedUrls = krakenClient.createPresignedUrl(authUser.getCredentials());
+        if(preSignedUrls == null) {
+            return null;
+        }
+        return preSignedUrls.get("urls");
+    }
+
+    /**
+     * Downloads every plugin JAR into the JAR cache on a bounded pool of threads. JARs which fail to download are
+     * logged and skipped.
+     * @param urls List of PreSignedURL's, one for each plugin JAR the user has purchased.
+     * @return List of class loaders for the downloaded JARs in URL order or null if the thread was interrupted.
+     */
+    public List<ByteArrayClassLoader> download(List<PreSignedURL> urls) {
+        return jarResourceLoader.loadJarsFromSignedUrls(PACKAGE_NAME, urls, DOWNLOAD_PARALLELISM, PREWARM_THREAD_NAME);
+    }
+}
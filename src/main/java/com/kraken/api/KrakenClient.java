@@ -2,6 +2,7 @@ package com.kraken.api;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -17,8 +18,10 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 
 @Slf4j
@@ -26,14 +29,32 @@ import java.util.Map;
 public class KrakenClient {
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
+    private final String baseUrl;
     private static final String BASE_URL = "https://rog742w0fa.execute-api.us-east-1.amazonaws.com/prod";
 
+    // Set once the API reports it has no batch license validation endpoint, licenses are then validated one at a time.
+    private volatile boolean batchValidationSupported = true;
+
+    // Limits the asynchronous requests in flight. Injection replaces it with the limiter shared by every client in the
+    // process.
+    @Inject
+    private RequestLimiter requestLimiter = new RequestLimiter(RequestLimiter.MAX_CONCURRENT_REQUESTS);
+
+    // Stores the license leases returned by the validation endpoints. Not set when the client is created directly.
+    @Inject
+    private LicenseLeaseStore leaseStore;
+
     @Inject
     public KrakenClient() {
+        this(BASE_URL);
+    }
+
+    KrakenClient(String baseUrl) {
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
         this.objectMapper = new ObjectMapper();
+        this.baseUrl = baseUrl;
     }
 
     /**
@@ -57,20 +78,203 @@ public class KrakenClient {
     /**
      * Validates that a plugin license key is: not expired, connected to the correct hardware, and associated with the right account
      * @param request ValidateLicenseRequest request payload.
-     * @return Map
+     * @return boolean true if the license is valid and false if it is invalid or could not be validated.
      */
     public boolean validateLicense(ValidateLicenseRequest request) {
+        return Boolean.TRUE.equals(checkLicense(request));
+    }
+
+    /**
+     * Validates a plugin license key while distinguishing an invalid license from a failure to reach the Kraken API.
+     * @param request ValidateLicenseRequest request payload.
+     * @return Boolean true if the license is valid, false if the API reports it is invalid, or null if the API could
+     * not be reached or returned a server error.
+     */
+    public Boolean checkLicense(ValidateLicenseRequest request) {
+        return checkLicenseAsync(request).join();
+    }
+
+    /**
+     * Asynchronously validates a plugin license key. The calling thread is never blocked, see checkLicense().
+     * @param request ValidateLicenseRequest request payload.
+     * @return CompletableFuture which completes with true if the license is valid, false if the API reports it is
+     * invalid, or null if the API could not be reached or returned a server error. The future never completes
+     * exceptionally.
+     */
+    public CompletableFuture<Boolean> checkLicenseAsync(ValidateLicenseRequest request) {
+        return sendRequestAsync("POST", "/api/v1/plugin/validate-license", request, request.getCredentials().getIdToken())
+                .thenApply(res -> readLicenseResponse(request, res));
+    }
+
+    /**
+     * Reads the response of the single validation endpoint. A license is only reported invalid, and its lease revoked,
+     * when the body says so: an explicit "valid": false, or an "error" in a successful response. Expired credentials,
+     * timeouts, rate limiting, server errors and any other response without a verdict leave the license unconfirmed.
+     * @param request ValidateLicenseRequest the request which was sent
+     * @param res HttpResponse the response. May be null if the request failed.
+     * @return Boolean true if the license is valid, false if the API reports it is invalid, or null if the license could
+     * not be validated.
+     */
+    private Boolean readLicenseResponse(ValidateLicenseRequest request, HttpResponse<String> res) {
+        if(res == null || res.statusCode() >= 500 || isTransientRejection(res.statusCode())) {
+            return null;
+        }
+
+        JsonNode body;
+        try {
+            body = objectMapper.readTree(res.body());
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to read the response from /api/v1/plugin/validate-license. Error = {}", e.getMessage());
+            return null;
+        }
+
+        boolean successful = res.statusCode() >= 200 && res.statusCode() <= 299;
+        Boolean valid = null;
+        if(body != null && body.path("valid").isBoolean()) {
+            valid = body.get("valid").asBoolean();
+        } else if(successful && body != null && body.isObject()) {
+            valid = !body.hasNonNull("error");
+        }
+
+        if(valid == null) {
+            log.warn("License validation was rejected with status code: {} without a result.", res.statusCode());
+            return null;
+        }
+
+        log.debug("License Key Response: valid = {}", valid);
+        updateLease(request.getLicenseKey(), request.getHardwareId(), valid, body.path("lease").isTextual() ? body.get("lease").asText() : null);
+        return valid;
+    }
+
+    /**
+     * @param statusCode int HTTP status code of a response from the Kraken API
+     * @return boolean true if the request was rejected for a reason unrelated to the license, i.e. the credentials have
+     * expired (401, 403), the request timed out (408) or it was rate limited (429).
+     */
+    private static boolean isTransientRejection(int statusCode) {
+        return statusCode == 401 || statusCode == 403 || statusCode == 408 || statusCode == 429;
+    }
+
+    /**
+     * Validates many plugin license keys for the same user and hardware in a single request, blocking until every
+     * result is known. See checkLicensesAsync().
+     * @param credentials CognitoCredentials the credentials of the user who owns the licenses
+     * @param hardwareId String the hardware id the licenses are bound to
+     * @param licenseKeys List of license keys to validate
+     * @return Map of license key to true if the license is valid, false if the API reports it is invalid, or null if the
+     * license could not be validated. Entries are in the same order as the license keys.
+     */
+    public Map<String, Boolean> checkLicenses(CognitoCredentials credentials, String hardwareId, List<String> licenseKeys) {
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for(Map.Entry<String, CompletableFuture<Boolean>> entry : checkLicensesAsync(credentials, hardwareId, licenseKeys).entrySet()) {
+            results.put(entry.getKey(), entry.getValue().join());
+        }
+        return results;
+    }
+
+    /**
+     * Asynchronously validates many plugin license keys for the same user and hardware in a single request. When the
+     * API does not support batch validation each license is validated with its own request instead, these requests
+     * run concurrently up to the request limit. Any license the batch response leaves out is validated on its own.
+     * @param credentials CognitoCredentials the credentials of the user who owns the licenses
+     * @param hardwareId String the hardware id the licenses are bound to
+     * @param licenseKeys List of license keys to validate
+     * @return Map of license key to a future which completes with true if the license is valid, false if the API
+     * reports it is invalid, or null if the license could not be validated. The futures complete independently, as
+     * soon as the result for their license is known, and never complete exceptionally. Entries are in the same
+     * order as the license keys.
+     */
+    public Map<String, CompletableFuture<Boolean>> checkLicensesAsync(CognitoCredentials credentials, String hardwareId, List<String> licenseKeys) {
+        Map<String, CompletableFuture<Boolean>> results = new LinkedHashMap<>();
+        if(!batchValidationSupported || licenseKeys.size() < 2) {
+            for(String licenseKey : licenseKeys) {
+                results.put(licenseKey, checkLicenseAsync(new ValidateLicenseRequest(credentials, licenseKey, hardwareId)));
+            }
+            return results;
+        }
+
+        CompletableFuture<Map<String, Boolean>> batch = sendRequestAsync("POST", "/api/v1/plugin/validate-licenses",
+                new ValidateLicensesRequest(credentials, licenseKeys, hardwareId), credentials.getIdToken())
+                .thenApply(res -> readBatchLicenseResponse(hardwareId, res));
+
+        for(String licenseKey : licenseKeys) {
+            results.put(licenseKey, batch.thenCompose(batchResults -> {
+                if(batchResults != null && batchResults.get(licenseKey) != null) {
+                    return CompletableFuture.completedFuture(batchResults.get(licenseKey));
+                }
+
+                if(batchResults == null && batchValidationSupported) {
+                    // The API could not be reached, validating the license on its own would only fail the same way.
+                    return CompletableFuture.completedFuture(null);
+                }
+                return checkLicenseAsync(new ValidateLicenseRequest(credentials, licenseKey, hardwareId));
+            }));
+        }
+        return results;
+    }
+
+    /**
+     * Reads the response of the batch validation endpoint. A failed request, a server error or a rejection unrelated to
+     * the licenses (see isTransientRejection()) counts as the API being unreachable. Any other unexpected response yields no results so each license is validated on its own.
+     * @param hardwareId String the hardware id the licenses were validated for
+     * @param res HttpResponse the response. May be null if the request failed.
+     * @return Map of license key to validation result, or null if the endpoint is not supported or could not be reached.
+     */
+    private Map<String, Boolean> readBatchLicenseResponse(String hardwareId, HttpResponse<String> res) {
+        if(res == null) {
+            return null;
+        }
+
+        if(res.statusCode() == 404 || res.statusCode() == 405 || res.statusCode() == 501) {
+            log.info("Batch license validation is not supported by the Kraken API. Validating licenses individually.");
+            batchValidationSupported = false;
+            return null;
+        }
+
+        if(res.statusCode() >= 500 || isTransientRejection(res.statusCode())) {
+            return null;
+        }
+
+        if(res.statusCode() < 200 || res.statusCode() > 299) {
+            log.warn("Batch license validation was rejected with status code: {}. Validating licenses individually.", res.statusCode());
+            return Map.of();
+        }
+
         try {
-            HttpResponse<String> res = sendRequestGeneric("POST", "/api/v1/plugin/validate-license", request, request.getCredentials().getIdToken());
-            Map<String, String> licenseKeyResponse = objectMapper.readValue(res.body(), new TypeReference<>() {});
-            log.debug("License Key Response: keys = {}, values = {}", licenseKeyResponse.keySet(), licenseKeyResponse.values());
-            if(licenseKeyResponse.get("error") == null) {
-                return true;
+            ValidateLicensesResponse response = objectMapper.readValue(res.body(), ValidateLicensesResponse.class);
+            if(response.getResults() != null) {
+                Map<String, String> leases = response.getLeases() == null ? Map.of() : response.getLeases();
+                response.getResults().forEach((licenseKey, valid) -> {
+                    if(valid != null) {
+                        updateLease(licenseKey, hardwareId, valid, leases.get(licenseKey));
+                    }
+                });
             }
+            return response.getResults() == null ? Map.of() : response.getResults();
         } catch (IOException e) {
-            log.error("IOException thrown while attempting to make PUT API request to /api/v1/plugin/validate-license Error = {}", e.getMessage());
+            log.error("IOException thrown while attempting to read the response from /api/v1/plugin/validate-licenses. Error = {}", e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Stores the license lease the validation endpoint issued with a result, or drops the held lease when the license
+     * is no longer valid.
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id the license was validated for
+     * @param valid boolean true if the API reported the license as valid
+     * @param lease String the lease token issued with the result. May be null if the API did not issue one.
+     */
+    private void updateLease(String licenseKey, String hardwareId, boolean valid, String lease) {
+        if(leaseStore == null) {
+            return;
+        }
+
+        if(!valid) {
+            leaseStore.revoke(licenseKey, hardwareId);
+        } else if(lease != null) {
+            leaseStore.store(licenseKey, hardwareId, lease);
         }
-        return false;
     }
 
     /**
@@ -154,25 +358,60 @@ public class KrakenClient {
      * @throws InterruptedException
      */
     private HttpResponse<String> sendRequestGeneric(@NonNull String method, @NonNull String path, String jsonBody, String accessToken) throws IOException, InterruptedException {
+        HttpResponse<String> res = httpClient.send(buildRequest(method, path, jsonBody, accessToken), HttpResponse.BodyHandlers.ofString());
+        logResponse(method, path, res);
+        return res;
+    }
+
+    /**
+     * Sends a request without blocking the calling thread. At most MAX_CONCURRENT_REQUESTS asynchronous requests are
+     * in flight at once, further requests are queued until one completes.
+     * @param method String the HTTP method
+     * @param path String the API path
+     * @param body Object the request body which is serialized to JSON. May be null.
+     * @param accessToken String the bearer token. May be null.
+     * @return CompletableFuture which completes with the response, or with null if the request could not be sent.
+     * The future never completes exceptionally.
+     */
+    private CompletableFuture<HttpResponse<String>> sendRequestAsync(String method, String path, Object body, String accessToken) {
+        HttpRequest request;
+        try {
+            request = buildRequest(method, path, body == null ? null : objectMapper.writeValueAsString(body), accessToken);
+        } catch(JsonProcessingException e) {
+            log.error("Failed to write body of request to json. Error = {}", e.getMessage());
+            e.printStackTrace();
+            return CompletableFuture.completedFuture(null);
+        }
 
+        return requestLimiter.submit(() -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()))
+                .thenApply(res -> {
+                    logResponse(method, path, res);
+                    return res;
+                })
+                .exceptionally(throwable -> {
+                    log.error("Exception thrown while attempting to send request: method={}, path={}, error={}", method, path, throwable.getMessage());
+                    return null;
+                });
+    }
+
+    private HttpRequest buildRequest(String method, String path, String jsonBody, String accessToken) {
         HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + path))
+                .uri(URI.create(baseUrl + path))
                 .header("Content-Type", "application/json")
                 .method(method, jsonBody == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(jsonBody));
 
         if(accessToken != null) {
             requestBuilder.header("Authorization", "Bearer " + accessToken);
         }
+        return requestBuilder.build();
+    }
 
-        HttpRequest request = requestBuilder.build();
-        HttpResponse<String> res = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    private static void logResponse(String method, String path, HttpResponse<String> res) {
         log.info("[{}] - {} - Status Code = {}", method, path, res.statusCode());
 
         if(res.statusCode() < 200 || res.statusCode() > 399) {
             log.error("Unexpected response code from: {} request to: {}, status code = {}, body: {}", method, path, res.statusCode(), res.body());
         }
-
-        return res;
     }
 
     private HttpResponse<String> sendRequestGeneric(String method, String path, Object body, String accessToken) {
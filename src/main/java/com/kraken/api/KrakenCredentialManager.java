@@ -2,8 +2,11 @@ package com.kraken.api;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.kraken.api.model.CognitoAuth;
 import com.kraken.api.model.CognitoUser;
+import com.kraken.loader.ProcessLock;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
@@ -11,6 +14,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 import static net.runelite.client.RuneLite.RUNELITE_DIR;
 
@@ -19,15 +23,53 @@ import static net.runelite.client.RuneLite.RUNELITE_DIR;
 public class KrakenCredentialManager {
     private static final String KRAKEN_DIR = "kraken";
     private static final String CREDS_FILE = "creds.json";
+    private static final String CREDS_LOCK_FILE = "creds.lock";
+
+    // Credentials refreshed this recently, by any client process, are reused instead of refreshing them again.
+    private static final long RECENT_AUTHENTICATION_MILLIS = 5 * 60 * 1000;
+
     private final ObjectMapper mapper;
 
+    @Inject
+    private KrakenClient krakenClient;
+
 
     public KrakenCredentialManager() {
         this.mapper = new ObjectMapper();
     }
 
     /**
-     * Saves a set of user (Cognito) credentials to disk.
+     * Authenticates the user stored on disk and persists the refreshed credentials. Client processes on the same
+     * machine take turns refreshing the credentials, credentials another process refreshed moments ago are reused
+     * without a request so simultaneous launches only refresh the token once.
+     * @return CognitoUser the authenticated user or null if there are no credentials on disk or authentication failed.
+     */
+    public CognitoUser authenticateUser() {
+        try (ProcessLock lock = ProcessLock.tryAcquire(Paths.get(RUNELITE_DIR.getPath(), KRAKEN_DIR, CREDS_LOCK_FILE))) {
+            CognitoUser user = loadUserCredentials();
+            if (user == null || user.getCredentials() == null) {
+                return null;
+            }
+
+            if (System.currentTimeMillis() - user.getAuthenticatedAt() < RECENT_AUTHENTICATION_MILLIS) {
+                log.info("Reusing credentials refreshed moments ago for user: {}", user.getDiscordUsername());
+                return user;
+            }
+
+            CognitoUser authUser = krakenClient.authenticate(new CognitoAuth(user.getDiscordId(), user.getCredentials().getRefreshToken()));
+            if (authUser == null || authUser.getCredentials() == null || authUser.getDiscordId() == null || authUser.getDiscordUsername() == null) {
+                return null;
+            }
+
+            authUser.setAuthenticatedAt(System.currentTimeMillis());
+            persistUserCredentials(authUser);
+            return authUser;
+        }
+    }
+
+    /**
+     * Saves a set of user (Cognito) credentials to disk. The credentials are written to a temporary file which is
+     * moved into place so other client processes never read a partially written file.
      * @param cognitoUser The user information to save: id, username, email from discord and the access token and refresh token.
      */
     public void persistUserCredentials(CognitoUser cognitoUser) {
@@ -45,23 +87,16 @@ public class KrakenCredentialManager {
         Path credsFilePath = Paths.get(krakenDir.toString(), CREDS_FILE);
         File credsFile = credsFilePath.toFile();
 
-        if (!credsFile.exists()) {
-            try {
-                Files.createFile(credsFilePath);
-            } catch (IOException e) {
-                // Handle exception, e.g., log the error
-                log.error("IOException thrown while attempting to create creds.json file in: {}. Error = {}", krakenDir.getPath(), e.getMessage());
-                e.printStackTrace();
-            }
+        if(cognitoUser.getDiscordUsername() == null || cognitoUser.getDiscordId() == null || cognitoUser.getCredentials() == null) {
+            log.info("Cognito user data is null. Skipping persist.");
+            return;
         }
 
-        try {
-            if(cognitoUser.getDiscordUsername() == null || cognitoUser.getDiscordId() == null || cognitoUser.getCredentials() == null) {
-                log.info("Cognito user data is null. Skipping persist.");
-                return;
-            }
+        try (ProcessLock lock = ProcessLock.tryAcquire(Paths.get(krakenDir.toString(), CREDS_LOCK_FILE))) {
+            Path tmp = Files.createTempFile(krakenDir.toPath(), CREDS_FILE, ".tmp");
+            mapper.writeValue(tmp.toFile(), cognitoUser);
+            Files.move(tmp, credsFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             log.info("User info persisted to disk.");
-            mapper.writeValue(credsFile, cognitoUser);
         } catch (IOException e) {
             log.error("Failed writing creds to JSON file. Path = {}. Error = {}", credsFile.getPath(), e.getMessage());
             e.printStackTrace();
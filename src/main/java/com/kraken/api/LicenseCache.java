@@ -0,0 +1,237 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Singleton;
+import com.kraken.api.model.LicenseCacheEntry;
+import com.kraken.loader.JarCache;
+import com.kraken.loader.ProcessLock;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * Caches the results of license validations so the same license is not validated again and again. Results are
+ * persisted across restarts and are recorded by a hash of the license key, hardware id and user so no license keys
+ * are written to disk. A cached result is used as is while it is fresh:
+ *
+ * - Valid results are fresh for kraken.licenseCacheTtlMinutes (default 60).
+ * - Invalid results are fresh for kraken.invalidLicenseCacheTtlMinutes (default 5).
+ *
+ * Once a valid result is no longer fresh it is still used to start the plugin while the license is confirmed in the
+ * background for up to 24 hours, and to keep the plugin running while the Kraken API cannot be reached for up to
+ * kraken.licenseOfflineGraceHours (default 72).
+ *
+ * Entries are authenticated with an HMAC keyed with the hardware id, so entries which were edited by hand or copied
+ * from another machine are ignored. Entries validated more than a few minutes in the future, i.e. after the system
+ * clock was turned back, are ignored as well so they cannot extend the grace period.
+ *
+ * The cache file is shared by every client process on the machine. Results are recorded under a ProcessLock after
+ * re-reading the file, so results recorded by other processes are kept.
+ */
+@Slf4j
+@Singleton
+public class LicenseCache {
+    private static final String KRAKEN_DIR = "kraken";
+    private static final String CACHE_FILE = "license-cache.json";
+    private static final String LOCK_FILE = "license-cache.lock";
+
+    private static final long VALID_TTL_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("kraken.licenseCacheTtlMinutes", 60));
+    private static final long INVALID_TTL_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("kraken.invalidLicenseCacheTtlMinutes", 5));
+    private static final long OFFLINE_GRACE_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("kraken.licenseOfflineGraceHours", 72));
+
+    // How long after a successful validation a plugin may be started before its license is confirmed again.
+    private static final long RECENT_VALIDATION_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    // How far in the future an entry may have been validated before it is ignored, allows for small clock adjustments.
+    private static final long MAX_CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final ObjectMapper mapper;
+    private final Path cacheFile;
+    private final Clock clock;
+    private Map<String, LicenseCacheEntry> entries;
+
+    public LicenseCache() {
+        this(RUNELITE_DIR.toPath().resolve(KRAKEN_DIR).resolve(CACHE_FILE), Clock.systemUTC());
+    }
+
+    LicenseCache(Path cacheFile, Clock clock) {
+        this.mapper = new ObjectMapper();
+        this.cacheFile = cacheFile;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the cached validation result for a license while it is fresh.
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id of this machine
+     * @param userId String the discord id of the user
+     * @return Boolean true if the license is valid, false if it is invalid, or null if there is no fresh result and
+     * the license must be validated with the Kraken API.
+     */
+    public synchronized Boolean getFresh(String licenseKey, String hardwareId, String userId) {
+        LicenseCacheEntry entry = getEntry(licenseKey, hardwareId, userId);
+        if (entry == null) {
+            return null;
+        }
+
+        long ttl = entry.isValid() ? VALID_TTL_MILLIS : INVALID_TTL_MILLIS;
+        return clock.millis() - entry.getCheckedAt() < ttl ? entry.isValid() : null;
+    }
+
+    /**
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id of this machine
+     * @param userId String the discord id of the user
+     * @return boolean true if the license was successfully validated for this user and machine recently.
+     */
+    public synchronized boolean isRecentlyValidated(String licenseKey, String hardwareId, String userId) {
+        return validatedWithin(licenseKey, hardwareId, userId, RECENT_VALIDATION_MILLIS);
+    }
+
+    /**
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id of this machine
+     * @param userId String the discord id of the user
+     * @return boolean true if the license was valid the last time the Kraken API was reached and that was within the
+     * offline grace period, i.e. the license may be treated as valid while the API cannot be reached. Only consult this
+     * when the request failed or the API returned a server error, never when the API rejected the license.
+     */
+    public synchronized boolean isWithinGracePeriod(String licenseKey, String hardwareId, String userId) {
+        return validatedWithin(licenseKey, hardwareId, userId, OFFLINE_GRACE_MILLIS);
+    }
+
+    /**
+     * Records a successful license validation.
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id of this machine
+     * @param userId String the discord id of the user
+     */
+    public synchronized void recordValid(String licenseKey, String hardwareId, String userId) {
+        record(licenseKey, hardwareId, userId, true);
+    }
+
+    /**
+     * Records a license which the Kraken API reported as invalid so it is never started optimistically or during an
+     * outage again.
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id of this machine
+     * @param userId String the discord id of the user
+     */
+    public synchronized void recordInvalid(String licenseKey, String hardwareId, String userId) {
+        record(licenseKey, hardwareId, userId, false);
+    }
+
+    private boolean validatedWithin(String licenseKey, String hardwareId, String userId, long millis) {
+        LicenseCacheEntry entry = getEntry(licenseKey, hardwareId, userId);
+        return entry != null && entry.isValid() && clock.millis() - entry.getCheckedAt() < millis;
+    }
+
+    /**
+     * Returns the entry for a license if it was recorded on this machine and was not validated in the future.
+     * @return LicenseCacheEntry the entry or null if there is no entry which can be trusted.
+     */
+    private LicenseCacheEntry getEntry(String licenseKey, String hardwareId, String userId) {
+        String key = key(licenseKey, hardwareId, userId);
+        LicenseCacheEntry entry = getEntries().get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.getMac() == null || !MessageDigest.isEqual(mac(key, hardwareId, entry).getBytes(StandardCharsets.UTF_8),
+                entry.getMac().getBytes(StandardCharsets.UTF_8))) {
+            log.warn("Ignoring a license cache entry which was not recorded on this machine.");
+            return null;
+        }
+
+        if (entry.getCheckedAt() > clock.millis() + MAX_CLOCK_SKEW_MILLIS) {
+            log.warn("Ignoring a license cache entry which was validated in the future.");
+            return null;
+        }
+        return entry;
+    }
+
+    private void record(String licenseKey, String hardwareId, String userId, boolean valid) {
+        String key = key(licenseKey, hardwareId, userId);
+        LicenseCacheEntry entry = new LicenseCacheEntry();
+        entry.setValid(valid);
+        entry.setCheckedAt(clock.millis());
+        entry.setMac(mac(key, hardwareId, entry));
+        try (ProcessLock lock = ProcessLock.tryAcquire(cacheFile.resolveSibling(LOCK_FILE))) {
+            entries = null;
+            getEntries().put(key, entry);
+            write();
+        }
+    }
+
+    /**
+     * Authenticates an entry with the hardware id of this machine.
+     * @param key String the key the entry is recorded under
+     * @param hardwareId String the hardware id of this machine
+     * @param entry LicenseCacheEntry the entry
+     * @return String hex encoded HMAC of the key, result and validation time.
+     */
+    private static String mac(String key, String hardwareId, LicenseCacheEntry entry) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(hardwareId.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM));
+            String value = key + ":" + entry.isValid() + ":" + entry.getCheckedAt();
+            return JarCache.toHex(mac.doFinal(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            // Every Java platform is required to support HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(String licenseKey, String hardwareId, String userId) {
+        String value = licenseKey + ":" + hardwareId + ":" + userId;
+        return JarCache.sha256(ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Map<String, LicenseCacheEntry> getEntries() {
+        if (entries != null) {
+            return entries;
+        }
+
+        File file = cacheFile.toFile();
+        if (file.exists() && file.length() > 0) {
+            try {
+                entries = mapper.readValue(file, new TypeReference<HashMap<String, LicenseCacheEntry>>() {});
+                return entries;
+            } catch (IOException e) {
+                log.error("IOException thrown while attempting to load the license cache. Error = {}", e.getMessage());
+            }
+        }
+        entries = new HashMap<>();
+        return entries;
+    }
+
+    private void write() {
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path tmp = Files.createTempFile(cacheFile.getParent(), CACHE_FILE, ".tmp");
+            mapper.writeValue(tmp.toFile(), entries);
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to write the license cache. Error = {}", e.getMessage());
+        }
+    }
+}
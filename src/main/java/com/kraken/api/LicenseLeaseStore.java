@@ -0,0 +1,272 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Singleton;
+import com.kraken.api.model.LicenseLease;
+import com.kraken.loader.JarCache;
+import com.kraken.loader.ProcessLock;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * Stores the signed license leases issued by the Kraken API and verifies them locally so a license with a lease does
+ * not need a round trip to the API. A lease token is two base64url encoded parts separated by a dot: the JSON
+ * LicenseLease payload and its signature. Leases are signed by the Kraken API with the private key matching the
+ * public key embedded in the client (lease-public-key.pem, X.509 PEM). EC keys are verified with SHA256withECDSA and
+ * RSA keys with SHA256withRSA. The key is not kept in the repository, the build copies it into the client from the
+ * file given with -PleasePublicKey or the KRAKEN_LEASE_PUBLIC_KEY environment variable and shadowJar fails without
+ * it. A client built without it is a configuration error, it is logged as such and leases are disabled.
+ *
+ * Leases are persisted to RUNELITE_DIR/kraken/leases.json. A lease should be renewed once it has used three quarters
+ * of its lifetime, see needsRenewal(). The file is shared by every client process on the machine, so leases are
+ * stored and revoked under a ProcessLock after re-reading the file, keeping leases other processes stored.
+ */
+@Slf4j
+@Singleton
+public class LicenseLeaseStore {
+    private static final String KRAKEN_DIR = "kraken";
+    private static final String LEASE_FILE = "leases.json";
+    private static final String LOCK_FILE = "leases.lock";
+    private static final String PUBLIC_KEY_RESOURCE = "lease-public-key.pem";
+
+    private final ObjectMapper mapper;
+    private final Path leaseFile;
+    private final PublicKey publicKey;
+
+    // Lease tokens by hash of the license key and hardware id.
+    private Map<String, String> tokens;
+
+    // Verified payloads by lease token, so each lease is only verified once.
+    private final Map<String, LicenseLease> verified = new HashMap<>();
+
+    public LicenseLeaseStore() {
+        this(RUNELITE_DIR.toPath().resolve(KRAKEN_DIR).resolve(LEASE_FILE), loadPublicKey());
+    }
+
+    LicenseLeaseStore(Path leaseFile, PublicKey publicKey) {
+        this.mapper = new ObjectMapper();
+        this.leaseFile = leaseFile;
+        this.publicKey = publicKey;
+    }
+
+    /**
+     * Returns the lease for a license if it is held, correctly signed, bound to the license key and hardware id, and
+     * not expired. No request is made.
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id of this machine
+     * @return LicenseLease the valid lease or null if there is none.
+     */
+    public synchronized LicenseLease getValidLease(String licenseKey, String hardwareId) {
+        String token = getTokens().get(key(licenseKey, hardwareId));
+        if (token == null) {
+            return null;
+        }
+
+        LicenseLease lease = verify(token);
+        if (lease == null
+                || !sha256(licenseKey).equals(lease.getLicenseKeySha256())
+                || !hardwareId.equals(lease.getHardwareId())
+                || System.currentTimeMillis() >= lease.getExpiresAt()) {
+            return null;
+        }
+        return lease;
+    }
+
+    /**
+     * @param lease LicenseLease a valid lease
+     * @return boolean true once the lease has used three quarters of its lifetime and should be renewed.
+     */
+    public static boolean needsRenewal(LicenseLease lease) {
+        long lifetime = lease.getExpiresAt() - lease.getIssuedAt();
+        return System.currentTimeMillis() >= lease.getExpiresAt() - lifetime / 4;
+    }
+
+    /**
+     * Stores a lease issued by the Kraken API. Leases which fail verification or were issued for another license or
+     * machine are ignored.
+     * @param licenseKey String the plugin license key the lease was requested for
+     * @param hardwareId String the hardware id the lease was requested for
+     * @param token String the lease token
+     */
+    public synchronized void store(String licenseKey, String hardwareId, String token) {
+        if (publicKey == null) {
+            // The missing key was reported when the store was created.
+            return;
+        }
+
+        LicenseLease lease = verify(token);
+        if (lease == null || !sha256(licenseKey).equals(lease.getLicenseKeySha256()) || !hardwareId.equals(lease.getHardwareId())) {
+            log.warn("Ignoring a license lease which could not be verified.");
+            return;
+        }
+
+        try (ProcessLock lock = lockLeaseFile()) {
+            getTokens().put(key(licenseKey, hardwareId), token);
+            write();
+        }
+    }
+
+    /**
+     * Drops the lease for a license which the Kraken API reported as invalid.
+     * @param licenseKey String the plugin license key
+     * @param hardwareId String the hardware id of this machine
+     */
+    public synchronized void revoke(String licenseKey, String hardwareId) {
+        try (ProcessLock lock = lockLeaseFile()) {
+            String token = getTokens().remove(key(licenseKey, hardwareId));
+            if (token != null) {
+                verified.remove(token);
+                write();
+            }
+        }
+    }
+
+    /**
+     * Locks the lease file against other processes and drops the in memory copy so it is re-read from disk, picking
+     * up leases other processes stored since it was last read.
+     */
+    private ProcessLock lockLeaseFile() {
+        ProcessLock lock = ProcessLock.tryAcquire(leaseFile.resolveSibling(LOCK_FILE));
+        tokens = null;
+        return lock;
+    }
+
+    /**
+     * Verifies the signature of a lease token and reads its payload.
+     * @param token String the lease token
+     * @return LicenseLease the payload or null if the token is malformed or its signature is invalid.
+     */
+    private LicenseLease verify(String token) {
+        if (publicKey == null) {
+            return null;
+        }
+
+        LicenseLease lease = verified.get(token);
+        if (lease != null) {
+            return lease;
+        }
+
+        int separator = token.indexOf('.');
+        if (separator < 0) {
+            return null;
+        }
+
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(token.substring(0, separator));
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(separator + 1));
+
+            Signature verifier = Signature.getInstance("EC".equals(publicKey.getAlgorithm()) ? "SHA256withECDSA" : "SHA256withRSA");
+            verifier.initVerify(publicKey);
+            verifier.update(payload);
+            if (!verifier.verify(signature)) {
+                log.warn("License lease signature is invalid.");
+                return null;
+            }
+
+            lease = mapper.readValue(payload, LicenseLease.class);
+            verified.put(token, lease);
+            return lease;
+        } catch (IllegalArgumentException | GeneralSecurityException | IOException e) {
+            log.error("Exception thrown while attempting to verify a license lease. Error = {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static PublicKey loadPublicKey() {
+        try (InputStream in = LicenseLeaseStore.class.getResourceAsStream(PUBLIC_KEY_RESOURCE)) {
+            if (in == null) {
+                log.error("Configuration error: the license lease public key {} is missing from the client build. License "
+                        + "leases are disabled and every license is validated with the Kraken API.", PUBLIC_KEY_RESOURCE);
+                return null;
+            }
+
+            return parsePublicKey(new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            log.error("Exception thrown while attempting to load the license lease public key. Error = {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads an EC or RSA public key.
+     * @param pem String the X.509 public key in PEM format
+     * @return PublicKey the key or null if it is not a valid EC or RSA public key.
+     */
+    static PublicKey parsePublicKey(String pem) {
+        X509EncodedKeySpec spec;
+        try {
+            spec = new X509EncodedKeySpec(Base64.getDecoder().decode(pem
+                    .replaceAll("-----(BEGIN|END) PUBLIC KEY-----", "")
+                    .replaceAll("\\s", "")));
+        } catch (IllegalArgumentException e) {
+            log.error("License lease public key is not valid PEM. Error = {}", e.getMessage());
+            return null;
+        }
+
+        for (String algorithm : new String[]{"EC", "RSA"}) {
+            try {
+                return KeyFactory.getInstance(algorithm).generatePublic(spec);
+            } catch (GeneralSecurityException e) {
+                // Not a key of this algorithm, try the next one.
+            }
+        }
+        log.error("License lease public key is neither an EC nor an RSA key.");
+        return null;
+    }
+
+    private static String key(String licenseKey, String hardwareId) {
+        return sha256(licenseKey + ":" + hardwareId);
+    }
+
+    private static String sha256(String value) {
+        return JarCache.sha256(ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Map<String, String> getTokens() {
+        if (tokens != null) {
+            return tokens;
+        }
+
+        File file = leaseFile.toFile();
+        if (file.exists() && file.length() > 0) {
+            try {
+                tokens = mapper.readValue(file, new TypeReference<HashMap<String, String>>() {});
+                return tokens;
+            } catch (IOException e) {
+                log.error("IOException thrown while attempting to load license leases. Error = {}", e.getMessage());
+            }
+        }
+        tokens = new HashMap<>();
+        return tokens;
+    }
+
+    private void write() {
+        try {
+            Files.createDirectories(leaseFile.getParent());
+            Path tmp = Files.createTempFile(leaseFile.getParent(), LEASE_FILE, ".tmp");
+            mapper.writeValue(tmp.toFile(), tokens);
+            Files.move(tmp, leaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to write license leases. Error = {}", e.getMessage());
+        }
+    }
+}
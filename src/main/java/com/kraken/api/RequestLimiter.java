@@ -0,0 +1,91 @@
+package com.kraken.api;
+
+import com.google.inject.ProvidedBy;
+import com.google.inject.Provider;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many asynchronous requests are in flight at the same time without blocking the calling thread. Requests
+ * submitted while the limit is reached are queued and started in order as earlier requests complete.
+ *
+ * Every injector is provided the same limiter, so requests made by KrakenBootstrap's API client count towards the
+ * same limit as the client's own requests. The limit is set with -Dkraken.maxConcurrentRequests.
+ */
+@ProvidedBy(RequestLimiter.SharedInstanceProvider.class)
+class RequestLimiter {
+    // Maximum number of asynchronous requests in flight at the same time
+    static final int MAX_CONCURRENT_REQUESTS = Integer.getInteger("kraken.maxConcurrentRequests", 4);
+
+    private static final RequestLimiter INSTANCE = new RequestLimiter(MAX_CONCURRENT_REQUESTS);
+
+    private final int maxConcurrent;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    RequestLimiter(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+    }
+
+    /**
+     * Starts a request once fewer than maxConcurrent requests are in flight.
+     * @param request Supplier which starts the request
+     * @return CompletableFuture completed with the result of the request
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = request.get();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+
+            future.whenComplete((value, throwable) -> {
+                release();
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        synchronized (this) {
+            if (inFlight >= maxConcurrent) {
+                waiting.add(start);
+                return result;
+            }
+            inFlight++;
+        }
+        start.run();
+        return result;
+    }
+
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        // The permit is handed to the next request rather than released.
+        next.run();
+    }
+
+    /**
+     * Provides the process wide limiter to every injector.
+     */
+    static class SharedInstanceProvider implements Provider<RequestLimiter> {
+        @Override
+        public RequestLimiter get() {
+            return INSTANCE;
+        }
+    }
+}
@@ -12,4 +12,7 @@ public class CognitoUser {
     private String email;
     private boolean accountEnabled;
     private CognitoCredentials credentials;
+
+    // Local time the credentials were last refreshed by any client process. Not part of the Kraken API.
+    private long authenticatedAt;
 }
@@ -0,0 +1,28 @@
+package com.kraken.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+/**
+ * A presigned URL for a binary patch which upgrades a previous version of a plugin JAR to the current version.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JarPatch {
+
+    @JsonProperty("URL")
+    String url;
+
+    // SHA-256 of the JAR version the patch applies to.
+    @JsonProperty("FromSha256")
+    String fromSha256;
+
+    // SHA-256 of the JAR version the patch produces.
+    @JsonProperty("ToSha256")
+    String toSha256;
+
+    // S3 ETag of the JAR version the patch produces.
+    @JsonProperty("ETag")
+    String etag;
+}
@@ -0,0 +1,19 @@
+package com.kraken.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+/**
+ * The last result the Kraken API returned for a license, see LicenseCache.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LicenseCacheEntry {
+    private boolean valid;
+
+    // Time the Kraken API last validated the license.
+    private long checkedAt;
+
+    // HMAC-SHA256 of the entry keyed with the hardware id, entries which do not match are ignored.
+    private String mac;
+}
@@ -0,0 +1,18 @@
+package com.kraken.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+/**
+ * The signed payload of a license lease issued by the Kraken API. A lease states that a license is valid on a
+ * single machine until it expires, see LicenseLeaseStore.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LicenseLease {
+    // SHA-256 of the license key the lease was issued for, the license key itself is never part of the lease.
+    private String licenseKeySha256;
+    private String hardwareId;
+    private long issuedAt;
+    private long expiresAt;
+}
@@ -19,4 +19,8 @@ public class PreSignedURL {
 
     @JsonProperty("SignedHeader")
     Map<String, List<String>> signedHeader;
+
+    // Binary patches which upgrade previous versions of the JAR to the current version. May be null.
+    @JsonProperty("Patches")
+    List<JarPatch> patches;
 }
@@ -0,0 +1,17 @@
+package com.kraken.api.model;
+
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ValidateLicensesRequest {
+    CognitoCredentials credentials;
+    List<String> licenseKeys;
+    String hardwareId;
+}
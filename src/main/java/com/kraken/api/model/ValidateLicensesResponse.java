@@ -0,0 +1,16 @@
+package com.kraken.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ValidateLicensesResponse {
+    // License key -> true if the license is valid for the user and hardware id.
+    Map<String, Boolean> results;
+
+    // License key -> signed lease token for each valid license, see LicenseLeaseStore.
+    Map<String, String> leases;
+}
@@ -0,0 +1,134 @@
+package com.kraken.loader;
+
+import com.google.inject.ProvidedBy;
+import com.google.inject.Provider;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Global token bucket which limits the throughput of every Kraken JAR download in the client. All download streams
+ * draw from the same bucket so parallel and ranged downloads share one cap rather than each getting their own.
+ *
+ * The cap is set with the kraken.maxDownloadKBps system property (unlimited by default). In adaptive mode, which is
+ * on unless kraken.adaptiveDownloads is false, downloads are slowed to kraken.inGameDownloadKBps while the game
+ * client is logging in or logged in so plugin syncs do not compete with game traffic.
+ *
+ * The measured throughput is sampled over one second windows.
+ *
+ * There is one governor per process. KrakenBootstrap prefetches plugins through its own injector before RuneLite's
+ * injector exists, every injector is provided the same instance so the cap and the in game limit also apply to the
+ * prefetch.
+ */
+@Slf4j
+@ProvidedBy(BandwidthGovernor.SharedInstanceProvider.class)
+public class BandwidthGovernor {
+    private static final long MAX_BYTES_PER_SECOND = Long.getLong("kraken.maxDownloadKBps", 0) * 1024;
+    private static final long IN_GAME_BYTES_PER_SECOND = Long.getLong("kraken.inGameDownloadKBps", 128) * 1024;
+    private static final boolean ADAPTIVE = Boolean.parseBoolean(System.getProperty("kraken.adaptiveDownloads", "true"));
+
+    // Smallest burst the bucket allows so a single read is never split into many short sleeps.
+    private static final long MIN_BURST_BYTES = 16 * 1024;
+    private static final long SAMPLE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final BandwidthGovernor INSTANCE = new BandwidthGovernor();
+
+    private volatile boolean gameActive = false;
+
+    private double tokens = 0;
+    private long lastRefill = System.nanoTime();
+
+    private long totalBytes = 0;
+    private long windowStart = System.nanoTime();
+    private long windowBytes = 0;
+    private long throughput = 0;
+
+    /**
+     * Records bytes which have been read by a download and blocks until the bucket allows them.
+     * @param bytes int number of bytes read
+     * @throws InterruptedIOException When the thread is interrupted while waiting for the bucket to refill.
+     */
+    public void consume(int bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            sample(bytes);
+            long rate = getRateLimit();
+            if (rate <= 0) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            long burst = Math.max(MIN_BURST_BYTES, rate / 4);
+            tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / rate) : 0;
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling download");
+            }
+        }
+    }
+
+    private void sample(int bytes) {
+        totalBytes += bytes;
+        windowBytes += bytes;
+        long now = System.nanoTime();
+        if (now - windowStart >= SAMPLE_WINDOW_NANOS) {
+            throughput = windowBytes * SAMPLE_WINDOW_NANOS / (now - windowStart);
+            windowStart = now;
+            windowBytes = 0;
+        }
+    }
+
+    /**
+     * @return long the current download limit in bytes per second or 0 if downloads are unlimited.
+     */
+    public long getRateLimit() {
+        if (ADAPTIVE && gameActive) {
+            return MAX_BYTES_PER_SECOND > 0 ? Math.min(MAX_BYTES_PER_SECOND, IN_GAME_BYTES_PER_SECOND) : IN_GAME_BYTES_PER_SECOND;
+        }
+        return MAX_BYTES_PER_SECOND;
+    }
+
+    /**
+     * Tells the governor whether the game client is logging in or logged in. Only has an effect in adaptive mode.
+     * @param gameActive boolean true while the game client is logging in or logged in.
+     */
+    public void setGameActive(boolean gameActive) {
+        if (this.gameActive != gameActive) {
+            this.gameActive = gameActive;
+            log.debug("Game client is {}, plugin downloads limited to {} KB/s.", gameActive ? "active" : "idle", getRateLimit() / 1024);
+        }
+    }
+
+    /**
+     * @return long the download throughput in bytes per second measured over the most recent sample window.
+     */
+    public synchronized long getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @return long the total number of bytes downloaded through the governor.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Provides the process wide governor to every injector.
+     */
+    public static class SharedInstanceProvider implements Provider<BandwidthGovernor> {
+        @Override
+        public BandwidthGovernor get() {
+            return INSTANCE;
+        }
+    }
+}
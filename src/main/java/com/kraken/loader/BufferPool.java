@@ -0,0 +1,58 @@
+package com.kraken.loader;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread safe pool of reusable byte arrays used while streaming plugin JARs. Buffers are bucketed by power of two
+ * sizes so a buffer sized for one JAR entry can be reused for any later entry of a similar size.
+ */
+public class BufferPool {
+    private static final int MIN_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_BUFFERS_PER_SIZE = 16;
+
+    private final Map<Integer, Queue<byte[]>> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a buffer of at least the requested size, reusing a pooled buffer when one is available.
+     * @param minSize int the minimum size of the buffer
+     * @return byte[] buffer whose contents are undefined
+     */
+    public byte[] acquire(int minSize) {
+        if (minSize > MAX_POOLED_BUFFER_SIZE) {
+            return new byte[minSize];
+        }
+
+        int size = bucketSize(minSize);
+        Queue<byte[]> pool = pools.get(size);
+        byte[] buffer = pool == null ? null : pool.poll();
+        return buffer != null ? buffer : new byte[size];
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers which were not created by this pool are ignored.
+     * @param buffer byte[] the buffer to release. The caller must not use the buffer after releasing it.
+     */
+    public void release(byte[] buffer) {
+        int size = buffer.length;
+        if (size > MAX_POOLED_BUFFER_SIZE || size != bucketSize(size)) {
+            return;
+        }
+
+        Queue<byte[]> pool = pools.computeIfAbsent(size, k -> new ConcurrentLinkedQueue<>());
+        if (pool.size() < MAX_BUFFERS_PER_SIZE) {
+            pool.offer(buffer);
+        }
+    }
+
+    private static int bucketSize(int minSize) {
+        if (minSize <= MIN_BUFFER_SIZE) {
+            return MIN_BUFFER_SIZE;
+        }
+        int size = Integer.highestOneBit(minSize);
+        return size == minSize ? size : size << 1;
+    }
+}
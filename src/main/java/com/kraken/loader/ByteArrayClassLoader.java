@@ -1,29 +1,130 @@
 package com.kraken.loader;
 
-import lombok.Getter;
-
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * Custom ClassLoader that loads classes from byte arrays stored in memory
+ * Custom ClassLoader that loads classes from bytecode stored in a ClassStore. The bytecode for a class is
+ * released from the store once the class has been defined, a class whose definition fails can be loaded again.
+ * Non-class resources from the plugin JAR (images, JSON, properties, etc...) are held as read-only buffers and served
+ * through kraken: URLs.
+ *
+ * The loader is registered as parallel capable so class loading locks are held per class name rather than on the
+ * loader itself. Plugins which start worker threads can therefore load different classes at the same time. Class
+ * stores are backed by concurrent maps so they are safe to read from multiple loading threads.
  */
-@Getter
 public class ByteArrayClassLoader extends URLClassLoader {
-    private final Map<String, byte[]> classData;
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private final ClassStore classStore;
+    private final Map<String, ByteBuffer> resources;
+    private final ResourceURLStreamHandler resourceHandler;
+
+    // Loader holding classes which were deduplicated out of this loader's class store, if any.
+    private volatile ClassLoader sharedLoader;
 
-    public ByteArrayClassLoader(Map<String, byte[]> classData) {
+    // JAR cache key and hash of the JAR this loader was built from, used to detect plugin updates.
+    private volatile String cacheKey;
+    private volatile String jarHash;
+
+    public ByteArrayClassLoader(ClassStore classStore, Map<String, ByteBuffer> resources) {
         super(new URL[0], ByteArrayClassLoader.class.getClassLoader());
-        this.classData = classData;
+        this.classStore = classStore;
+        this.resources = resources;
+        this.resourceHandler = new ResourceURLStreamHandler(resources);
+    }
+
+    /**
+     * @return Set of binary class names which this loader is able to define.
+     */
+    public Set<String> getClassNames() {
+        return classStore.getClassNames();
+    }
+
+    /**
+     * Returns the superclass of a class in this loader without defining it.
+     * @param className String binary name of the class
+     * @return String binary name of the superclass or null if unknown.
+     */
+    public String getSuperclassName(String className) {
+        return classStore.getSuperclassName(className);
+    }
+
+    /**
+     * @return String JAR cache key of the JAR this loader was built from or null if unknown.
+     */
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * @return String SHA-256 hash of the JAR this loader was built from or null if unknown.
+     */
+    public String getJarHash() {
+        return jarHash;
+    }
+
+    void setJarSource(String cacheKey, String jarHash) {
+        this.cacheKey = cacheKey;
+        this.jarHash = jarHash;
+    }
+
+    ClassStore getClassStore() {
+        return classStore;
+    }
+
+    /**
+     * Sets the loader which classes that were deduplicated out of this loader's class store are loaded from.
+     * @param sharedLoader ClassLoader the shared class loader
+     */
+    void setSharedLoader(ClassLoader sharedLoader) {
+        this.sharedLoader = sharedLoader;
     }
 
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
-        byte[] bytes = classData.get(name);
+        ByteBuffer bytes = classStore.load(name);
         if (bytes != null) {
-            return defineClass(name, bytes, 0, bytes.length);
+            Class<?> clazz = defineClass(name, bytes, (ProtectionDomain) null);
+            classStore.release(name);
+            return clazz;
+        }
+
+        ClassLoader shared = sharedLoader;
+        if (shared != null && classStore.getClassNames().contains(name)) {
+            return shared.loadClass(name);
         }
         return super.findClass(name);
     }
+
+    @Override
+    public URL findResource(String name) {
+        if (resources.containsKey(name)) {
+            try {
+                return resourceHandler.createURL(name);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+        return super.findResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        URL url = findResource(name);
+        if (url != null) {
+            return Collections.enumeration(Collections.singletonList(url));
+        }
+        return super.findResources(name);
+    }
 }
@@ -0,0 +1,22 @@
+package com.kraken.loader;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+/**
+ * A single version of a plugin JAR stored in the local JAR cache. Blobs are stored on disk by the SHA-256 of
+ * their contents so identical JARs are only ever written once.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CachedJar {
+    // Stable identifier for the plugin JAR i.e. the S3 bucket host and object key without the presigned query string.
+    private String key;
+    private String etag;
+    private String sha256;
+    private long size;
+    private long lastAccessed;
+
+    // Last time this version was downloaded or confirmed unchanged by S3, by any client process.
+    private long verifiedAt;
+}
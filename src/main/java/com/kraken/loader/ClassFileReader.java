@@ -0,0 +1,242 @@
+package com.kraken.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Minimal class file reader which walks the constant pool of a class file to find the name of its superclass and
+ * the classes it refers to without defining the class. See the JVM specification section 4.4 for the layout of the
+ * constant pool and section 4.5 for the layout of fields.
+ */
+@Slf4j
+public class ClassFileReader {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+
+    private ClassFileReader() {}
+
+    /**
+     * Reads the binary name of the superclass from a class file.
+     * @param classFile ByteBuffer positioned at the start of a class file. The buffer's position is not modified.
+     * @return String binary name of the superclass i.e. net.runelite.client.plugins.Plugin or null if the class
+     * has no superclass (java.lang.Object) or the class file is malformed.
+     */
+    public static String readSuperclassName(ByteBuffer classFile) {
+        ByteBuffer buf = classFile.duplicate();
+        try {
+            ConstantPool constantPool = readConstantPool(buf);
+            if (constantPool == null) {
+                return null;
+            }
+
+            // Access flags and this_class
+            buf.position(buf.position() + 4);
+            int superClass = buf.getShort() & 0xFFFF;
+            if (superClass == 0 || constantPool.classNameIndexes[superClass] == 0) {
+                return null;
+            }
+
+            return readUtf8(buf, constantPool.utf8Offsets[constantPool.classNameIndexes[superClass]]).replace('/', '.');
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | IOException e) {
+            log.debug("Failed to read superclass from class file. Error = {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Finds every class within a package which a class file refers to. This includes class constants as well as
+     * classes which only appear in field and method descriptors or generic signatures, since the verifier may load
+     * those too.
+     * @param classFile ByteBuffer positioned at the start of a class file. The buffer's position is not modified.
+     * @param packageName String internal name of the package to search for i.e. com/krakenplugins
+     * @return Set of binary class names or null if the class file is malformed.
+     */
+    public static Set<String> readReferencedClassNames(ByteBuffer classFile, String packageName) {
+        ByteBuffer buf = classFile.duplicate();
+        try {
+            ConstantPool constantPool = readConstantPool(buf);
+            if (constantPool == null) {
+                return null;
+            }
+
+            Set<String> referenced = new HashSet<>();
+            for (int offset : constantPool.utf8Offsets) {
+                if (offset == 0) {
+                    continue;
+                }
+
+                String value = readUtf8(buf, offset);
+                int start = value.indexOf(packageName);
+                while (start != -1) {
+                    int end = start;
+                    while (end < value.length() && isClassNameChar(value.charAt(end))) {
+                        end++;
+                    }
+                    referenced.add(value.substring(start, end).replace('/', '.'));
+                    start = value.indexOf(packageName, end);
+                }
+            }
+            return referenced;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | IOException e) {
+            log.debug("Failed to read referenced classes from class file. Error = {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether a class file declares a static field which is not final, i.e. state which would be shared by
+     * every plugin if the class was defined once for all of them.
+     * @param classFile ByteBuffer positioned at the start of a class file. The buffer's position is not modified.
+     * @return Boolean true if the class declares a static non-final field or null if the class file is malformed.
+     */
+    public static Boolean hasMutableStaticFields(ByteBuffer classFile) {
+        ByteBuffer buf = classFile.duplicate();
+        try {
+            if (readConstantPool(buf) == null) {
+                return null;
+            }
+
+            // Access flags, this_class and super_class followed by the interfaces
+            buf.position(buf.position() + 6);
+            int interfacesCount = buf.getShort() & 0xFFFF;
+            buf.position(buf.position() + 2 * interfacesCount);
+
+            int fieldsCount = buf.getShort() & 0xFFFF;
+            for (int i = 0; i < fieldsCount; i++) {
+                int accessFlags = buf.getShort() & 0xFFFF;
+                if ((accessFlags & ACC_STATIC) != 0 && (accessFlags & ACC_FINAL) == 0) {
+                    return true;
+                }
+
+                // Name and descriptor indexes followed by the field's attributes
+                buf.position(buf.position() + 4);
+                int attributesCount = buf.getShort() & 0xFFFF;
+                for (int j = 0; j < attributesCount; j++) {
+                    buf.position(buf.position() + 2);
+                    int attributeLength = buf.getInt();
+                    buf.position(buf.position() + attributeLength);
+                }
+            }
+            return false;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            log.debug("Failed to read fields from class file. Error = {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isClassNameChar(char c) {
+        return Character.isJavaIdentifierPart(c) || c == '/';
+    }
+
+    /**
+     * Walks the constant pool recording where each CONSTANT_Utf8 entry starts and which Utf8 entry each
+     * CONSTANT_Class entry names. Leaves the buffer positioned at the access flags which follow the constant pool.
+     * @return ConstantPool or null if the class file is malformed.
+     */
+    private static ConstantPool readConstantPool(ByteBuffer buf) {
+        if (buf.getInt() != MAGIC) {
+            log.debug("Class file has an invalid magic number.");
+            return null;
+        }
+
+        // Minor and major version
+        buf.position(buf.position() + 4);
+
+        int constantPoolCount = buf.getShort() & 0xFFFF;
+        ConstantPool constantPool = new ConstantPool(constantPoolCount);
+
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = buf.get() & 0xFF;
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    constantPool.utf8Offsets[i] = buf.position();
+                    buf.position(buf.position() + 2 + (buf.getShort() & 0xFFFF));
+                    break;
+                case CONSTANT_CLASS:
+                    constantPool.classNameIndexes[i] = buf.getShort() & 0xFFFF;
+                    break;
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    buf.position(buf.position() + 2);
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    buf.position(buf.position() + 3);
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    buf.position(buf.position() + 4);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    // 8 byte constants take up two entries in the constant pool
+                    buf.position(buf.position() + 8);
+                    i++;
+                    break;
+                default:
+                    log.debug("Class file has an unknown constant pool tag: {}", tag);
+                    return null;
+            }
+        }
+        return constantPool;
+    }
+
+    /**
+     * Decodes a CONSTANT_Utf8 entry. Class files use modified UTF-8 which is the same encoding read by DataInput.
+     */
+    private static String readUtf8(ByteBuffer buf, int offset) throws IOException {
+        int length = buf.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length + 2];
+        ByteBuffer entry = buf.duplicate();
+        entry.position(offset);
+        entry.get(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+    private static class ConstantPool {
+        // Index of a CONSTANT_Utf8 entry -> buffer offset of its length field
+        final int[] utf8Offsets;
+
+        // Index of a CONSTANT_Class entry -> index of the CONSTANT_Utf8 entry holding its name
+        final int[] classNameIndexes;
+
+        ConstantPool(int size) {
+            this.utf8Offsets = new int[size];
+            this.classNameIndexes = new int[size];
+        }
+    }
+}
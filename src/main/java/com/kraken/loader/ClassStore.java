@@ -0,0 +1,63 @@
+package com.kraken.loader;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Storage for the bytecode of classes which have not yet been defined by a ByteArrayClassLoader. The class loader
+ * reads a class with load() and calls release() once the class has been defined, so the store can drop the bytecode
+ * while a class whose definition failed can still be loaded again.
+ */
+public interface ClassStore {
+
+    /**
+     * @return Set of binary class names (i.e. com.krakenplugins.example.ExamplePlugin) held by this store, including
+     * classes which have already been released or taken.
+     */
+    Set<String> getClassNames();
+
+    /**
+     * Returns the superclass of a class in this store, read from the class file header without defining the class.
+     * @param className String binary name of the class
+     * @return String binary name of the superclass or null if the class is not in this store, extends java.lang.Object,
+     * or could not be read.
+     */
+    String getSuperclassName(String className);
+
+    /**
+     * @param className String binary name of the class
+     * @return String hex encoded SHA-256 of the class file or null if the class is not in this store.
+     */
+    String getClassHash(String className);
+
+    /**
+     * Returns the bytecode for a class without removing it from the store.
+     * @param className String binary name of the class
+     * @return ByteBuffer read-only view of the class file or null if the class is not in this store or was already
+     * released or taken.
+     */
+    ByteBuffer peek(String className);
+
+    /**
+     * Returns the bytecode for a class so it can be defined. The bytecode stays in the store until release() is called.
+     * @param className String binary name of the class
+     * @return ByteBuffer positioned at the start of the class file or null if the class is not in this store or was
+     * already released or taken.
+     * @throws ClassFormatError if the stored class file is corrupt.
+     */
+    ByteBuffer load(String className);
+
+    /**
+     * Drops the bytecode for a class once it has been defined.
+     * @param className String binary name of the class
+     */
+    void release(String className);
+
+    /**
+     * Removes the bytecode for a class from the store and returns it, i.e. to move it into another store.
+     * @param className String binary name of the class
+     * @return ByteBuffer positioned at the start of the class file or null if the class is not in this store or was
+     * already taken.
+     */
+    ByteBuffer take(String className);
+}
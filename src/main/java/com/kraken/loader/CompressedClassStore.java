@@ -0,0 +1,173 @@
+package com.kraken.loader;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ClassStore which keeps classes deflate compressed on the heap until they are defined. Each class is inflated only
+ * when the class loader loads it and the compressed copy is dropped once the class has been defined. This trades a
+ * little CPU at class definition time for a smaller footprint on machines running several clients. Enabled with the
+ * kraken.compressClasses system property.
+ *
+ * The number of bytes held by every compressed class store in the client is tracked so the savings can be measured.
+ */
+public class CompressedClassStore implements ClassStore {
+    private static final AtomicLong COMPRESSED_BYTES = new AtomicLong();
+    private static final AtomicLong UNCOMPRESSED_BYTES = new AtomicLong();
+
+    private final Set<String> classNames = new LinkedHashSet<>();
+    private final Map<String, String> superclassNames = new HashMap<>();
+    private final Map<String, String> classHashes = new HashMap<>();
+    private final Map<String, CompressedClass> classData = new ConcurrentHashMap<>();
+
+    /**
+     * Compresses a class and adds it to the store. The bytes are copied so the buffer may be reused once this returns.
+     * @param className String binary name of the class
+     * @param bytes byte[] buffer holding the class file
+     * @param offset int offset of the class file within the buffer
+     * @param length int length of the class file
+     */
+    public void append(String className, byte[] bytes, int offset, int length) {
+        ByteBuffer classFile = ByteBuffer.wrap(bytes, offset, length).slice();
+        superclassNames.put(className, ClassFileReader.readSuperclassName(classFile));
+        classHashes.put(className, JarCache.sha256(classFile));
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            byte[] compressed = new byte[Math.max(64, length / 2)];
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+
+            classNames.add(className);
+            classData.put(className, new CompressedClass(Arrays.copyOf(compressed, compressedLength), length));
+            COMPRESSED_BYTES.addAndGet(compressedLength);
+            UNCOMPRESSED_BYTES.addAndGet(length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Drops every class which has not been taken yet.
+     */
+    public void clear() {
+        for (String className : classNames) {
+            CompressedClass compressed = classData.remove(className);
+            if (compressed != null) {
+                COMPRESSED_BYTES.addAndGet(-compressed.data.length);
+                UNCOMPRESSED_BYTES.addAndGet(-compressed.length);
+            }
+        }
+    }
+
+    /**
+     * @return long the total compressed size of all classes currently held by compressed class stores.
+     */
+    public static long getCompressedBytes() {
+        return COMPRESSED_BYTES.get();
+    }
+
+    /**
+     * @return long the total uncompressed size of all classes currently held by compressed class stores.
+     */
+    public static long getUncompressedBytes() {
+        return UNCOMPRESSED_BYTES.get();
+    }
+
+    @Override
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classNames);
+    }
+
+    @Override
+    public String getSuperclassName(String className) {
+        return superclassNames.get(className);
+    }
+
+    @Override
+    public String getClassHash(String className) {
+        return classHashes.get(className);
+    }
+
+    @Override
+    public ByteBuffer peek(String className) {
+        CompressedClass compressed = classData.get(className);
+        return compressed == null ? null : ByteBuffer.wrap(inflate(compressed)).asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer load(String className) {
+        CompressedClass compressed = classData.get(className);
+        return compressed == null ? null : ByteBuffer.wrap(inflate(compressed));
+    }
+
+    @Override
+    public void release(String className) {
+        CompressedClass compressed = classData.remove(className);
+        if (compressed != null) {
+            COMPRESSED_BYTES.addAndGet(-compressed.data.length);
+            UNCOMPRESSED_BYTES.addAndGet(-compressed.length);
+        }
+    }
+
+    @Override
+    public ByteBuffer take(String className) {
+        CompressedClass compressed = classData.remove(className);
+        if (compressed == null) {
+            return null;
+        }
+
+        COMPRESSED_BYTES.addAndGet(-compressed.data.length);
+        UNCOMPRESSED_BYTES.addAndGet(-compressed.length);
+        return ByteBuffer.wrap(inflate(compressed));
+    }
+
+    private static byte[] inflate(CompressedClass compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.data);
+            byte[] bytes = new byte[compressed.length];
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int n = inflater.inflate(bytes, length, bytes.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated compressed class data");
+                }
+                length += n;
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            // The data was compressed by this store so this can only happen if memory is corrupted.
+            throw new IllegalStateException("Compressed class data is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class CompressedClass {
+        final byte[] data;
+        final int length;
+
+        CompressedClass(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+}
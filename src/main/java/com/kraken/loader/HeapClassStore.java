@@ -0,0 +1,66 @@
+package com.kraken.loader;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ClassStore which holds class bytecode on the heap. Used when a memory mapped store cannot be created.
+ */
+public class HeapClassStore implements ClassStore {
+    private final Set<String> classNames;
+    private final Map<String, String> superclassNames = new HashMap<>();
+    private final Map<String, String> classHashes = new HashMap<>();
+    private final Map<String, byte[]> classData;
+
+    public HeapClassStore(Map<String, byte[]> classData) {
+        this.classNames = Collections.unmodifiableSet(new LinkedHashSet<>(classData.keySet()));
+        this.classData = new ConcurrentHashMap<>(classData);
+        for (Map.Entry<String, byte[]> entry : classData.entrySet()) {
+            superclassNames.put(entry.getKey(), ClassFileReader.readSuperclassName(ByteBuffer.wrap(entry.getValue())));
+            classHashes.put(entry.getKey(), JarCache.sha256(ByteBuffer.wrap(entry.getValue())));
+        }
+    }
+
+    @Override
+    public Set<String> getClassNames() {
+        return classNames;
+    }
+
+    @Override
+    public String getSuperclassName(String className) {
+        return superclassNames.get(className);
+    }
+
+    @Override
+    public String getClassHash(String className) {
+        return classHashes.get(className);
+    }
+
+    @Override
+    public ByteBuffer peek(String className) {
+        byte[] bytes = classData.get(className);
+        return bytes == null ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer load(String className) {
+        byte[] bytes = classData.get(className);
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public void release(String className) {
+        classData.remove(className);
+    }
+
+    @Override
+    public ByteBuffer take(String className) {
+        byte[] bytes = classData.remove(className);
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+}
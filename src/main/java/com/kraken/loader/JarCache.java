@@ -0,0 +1,432 @@
+package com.kraken.loader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.ProvidedBy;
+import com.google.inject.Provider;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * Persistent, content addressed cache of downloaded plugin JAR files. JARs are written to RUNELITE_DIR/kraken/cache
+ * named by the SHA-256 of their contents and are indexed by a stable cache key (the S3 object the presigned URL
+ * points to) and the S3 ETag so unchanged JARs can be revalidated with a conditional request rather than downloaded
+ * again. The cache is bounded in size and evicts the least recently used versions first.
+ *
+ * The cache is shared by every client process on the machine. The index is re-read and written under a file lock
+ * so updates from other processes are never lost, blobs are moved into place with atomic renames, and lock(key)
+ * lets exactly one process download a given JAR while the others wait and reuse it.
+ *
+ * Eviction never removes the latest version of a JAR or a JAR whose pack is still memory mapped by a live class
+ * loader in this process, see retain().
+ *
+ * There is one cache instance per process, every injector is provided the same instance so the in memory index and
+ * the loaders retained by KrakenBootstrap's prefetch are known to the client's cache.
+ */
+@Slf4j
+@ProvidedBy(JarCache.SharedInstanceProvider.class)
+public class JarCache {
+    private static final String KRAKEN_DIR = "kraken";
+    private static final String CACHE_DIR = "cache";
+    private static final String INDEX_FILE = "index.json";
+    private static final String INDEX_LOCK_FILE = "index.lock";
+    private static final String LOCK_DIR = "locks";
+    private static final String LOCK_EXTENSION = ".lock";
+    private static final String JAR_EXTENSION = ".jar";
+    private static final String PACK_EXTENSION = ".kpack";
+    private static final String PARTIAL_EXTENSION = ".part";
+
+    // Upper bound on the total size of all JARs and Kraken packs kept in the cache.
+    private static final long MAX_CACHE_BYTES = 256L * 1024 * 1024;
+
+    // Access times are only written back to the index once they are this stale. Every write rewrites the whole index
+    // and eviction does not need a more precise LRU order than this.
+    private static final long TOUCH_INTERVAL_MILLIS = 10 * 60_000;
+
+    // JARs downloaded or revalidated this recently, by any process, are used without revalidating them again.
+    private static final long RECENT_VERIFICATION_MILLIS = 60_000;
+
+    private final ObjectMapper mapper;
+    private final Path cacheDir;
+    private final long maxCacheBytes;
+
+    // Hash of the JAR each live class loader was created from. Entries disappear once a loader is reclaimed.
+    private final Map<ClassLoader, String> openJars = new WeakHashMap<>();
+    private JarCacheIndex index;
+
+    public JarCache() {
+        this(RUNELITE_DIR.toPath().resolve(KRAKEN_DIR).resolve(CACHE_DIR), MAX_CACHE_BYTES);
+    }
+
+    JarCache(Path cacheDir, long maxCacheBytes) {
+        this.mapper = new ObjectMapper();
+        this.cacheDir = cacheDir;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * Creates a stable cache key for a presigned URL. The query string of a presigned URL (signature, expiration, etc...)
+     * changes on every request so only the host and path are used.
+     * @param url URL the presigned URL for a plugin JAR
+     * @return String cache key
+     */
+    public static String cacheKey(URL url) {
+        return url.getHost() + url.getPath();
+    }
+
+    /**
+     * Returns the latest cached version of the JAR for the given cache key.
+     * @param key String cache key created through cacheKey()
+     * @return CachedJar the cached JAR metadata or null if this JAR has not been cached.
+     */
+    public synchronized CachedJar get(String key) {
+        try (ProcessLock lock = lockIndex()) {
+            String sha256 = getIndex().getLatest().get(key);
+            if (sha256 == null) {
+                return null;
+            }
+
+            CachedJar cached = getIndex().getBlobs().get(sha256);
+            if (cached == null || !Files.exists(blobPath(sha256))) {
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Acquires the lock for downloading the JAR with the given cache key. Only one process at a time holds the lock
+     * for a key, processes which wait for it should check isRecentlyVerified() once they hold it since the JAR was
+     * most likely just downloaded by the previous holder.
+     * @param key String cache key created through cacheKey()
+     * @return ProcessLock the held lock or null if the lock could not be acquired.
+     */
+    public ProcessLock lock(String key) {
+        return ProcessLock.tryAcquire(cacheDir.resolve(LOCK_DIR).resolve(sha256(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8))) + LOCK_EXTENSION));
+    }
+
+    /**
+     * @param cached CachedJar the cached JAR
+     * @return boolean True if the JAR was downloaded or revalidated against S3 by any client process moments ago.
+     */
+    public boolean isRecentlyVerified(CachedJar cached) {
+        return System.currentTimeMillis() - cached.getVerifiedAt() < RECENT_VERIFICATION_MILLIS;
+    }
+
+    /**
+     * Records that S3 confirmed the cached JAR is still the latest version.
+     * @param cached CachedJar the cached JAR which was revalidated
+     */
+    public synchronized void markVerified(CachedJar cached) {
+        try (ProcessLock lock = lockIndex()) {
+            CachedJar current = getIndex().getBlobs().get(cached.getSha256());
+            if (current != null) {
+                current.setVerifiedAt(System.currentTimeMillis());
+                writeIndex();
+            }
+        }
+    }
+
+    /**
+     * Opens a cached JAR for reading and marks it as recently used. Callers are responsible for verifying the
+     * contents against the hash the JAR was cached under.
+     * @param cached CachedJar the cached JAR to read
+     * @return InputStream over the JAR file
+     * @throws IOException When the cached JAR cannot be opened.
+     */
+    public synchronized InputStream open(CachedJar cached) throws IOException {
+        InputStream in = Files.newInputStream(blobPath(cached.getSha256()));
+        touch(cached);
+        return in;
+    }
+
+    /**
+     * Maps a cached JAR read-only and marks it as recently used. Callers are responsible for verifying the contents
+     * against the hash the JAR was cached under.
+     * @param cached CachedJar the cached JAR to map
+     * @return ByteBuffer over the JAR file
+     * @throws IOException When the cached JAR cannot be mapped.
+     */
+    public synchronized ByteBuffer map(CachedJar cached) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(blobPath(cached.getSha256()), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        touch(cached);
+        return mapped;
+    }
+
+    /**
+     * Records that a class loader was created from the cached JAR with the given hash. The JAR and its Kraken pack,
+     * which the loader may have memory mapped, are not evicted while the loader is reachable.
+     * @param loader ClassLoader the class loader created from the JAR
+     * @param sha256 String SHA-256 of the JAR
+     */
+    public synchronized void retain(ClassLoader loader, String sha256) {
+        openJars.put(loader, sha256);
+    }
+
+    private void touch(CachedJar cached) {
+        long now = System.currentTimeMillis();
+        if (now - cached.getLastAccessed() < TOUCH_INTERVAL_MILLIS) {
+            return;
+        }
+
+        cached.setLastAccessed(now);
+        try (ProcessLock lock = lockIndex()) {
+            CachedJar current = getIndex().getBlobs().get(cached.getSha256());
+            if (current != null) {
+                current.setLastAccessed(cached.getLastAccessed());
+                writeIndex();
+            }
+        }
+    }
+
+    /**
+     * Removes a cached JAR which is missing or has failed its integrity check.
+     * @param cached CachedJar the cached JAR to remove
+     */
+    public synchronized void invalidate(CachedJar cached) {
+        log.warn("Cached JAR: {} failed integrity check. Removing it from the cache.", cached.getKey());
+        try (ProcessLock lock = lockIndex()) {
+            removeBlob(cached.getSha256());
+            writeIndex();
+        }
+    }
+
+    /**
+     * Creates a temporary file in the cache directory for a JAR which is being downloaded. The file is moved into the
+     * cache by commit().
+     * @return Path the temporary file
+     * @throws IOException When the file cannot be created.
+     */
+    public Path createTempFile() throws IOException {
+        return Files.createTempFile(getCacheDir(), "download", ".tmp");
+    }
+
+    /**
+     * Returns the path of the partial file a ranged download of the given JAR is written to. The path is stable for a
+     * cache key so an interrupted download can be resumed by a later sync.
+     * @param key String cache key created through cacheKey()
+     * @return Path the partial download file
+     * @throws IOException When the cache directory cannot be created.
+     */
+    public Path partialDownloadPath(String key) throws IOException {
+        return getCacheDir().resolve(sha256(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8))) + PARTIAL_EXTENSION);
+    }
+
+    /**
+     * Stores a freshly downloaded JAR in the cache and records it as the latest version for its key. Older versions
+     * are left on disk until they are evicted.
+     * @param key String cache key created through cacheKey()
+     * @param etag String the S3 ETag returned with the JAR. May be null.
+     * @param tmp Path the downloaded JAR created through createTempFile() or partialDownloadPath()
+     * @param sha256 String the SHA-256 of the downloaded JAR
+     * @param size long the size of the downloaded JAR in bytes
+     */
+    public synchronized void commit(String key, String etag, Path tmp, String sha256, long size) {
+        Path blob = blobPath(sha256);
+        try {
+            if (Files.exists(blob)) {
+                Files.delete(tmp);
+            } else {
+                Files.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to write JAR: {} to the cache. Error = {}", key, e.getMessage());
+            return;
+        }
+
+        CachedJar cached = new CachedJar();
+        cached.setKey(key);
+        cached.setEtag(etag);
+        cached.setSha256(sha256);
+        cached.setSize(size);
+        cached.setLastAccessed(System.currentTimeMillis());
+        cached.setVerifiedAt(cached.getLastAccessed());
+
+        try (ProcessLock lock = lockIndex()) {
+            getIndex().getBlobs().put(sha256, cached);
+            getIndex().getLatest().put(key, sha256);
+            evict();
+            writeIndex();
+        }
+    }
+
+    /**
+     * Removes the least recently used JARs, along with their Kraken packs, until the cache fits within the size limit.
+     * The latest version of each JAR and JARs in use by live class loaders are never removed.
+     */
+    private void evict() {
+        List<CachedJar> blobs = new ArrayList<>(getIndex().getBlobs().values());
+        long total = blobs.stream().mapToLong(this::diskSize).sum();
+        if (total <= maxCacheBytes) {
+            return;
+        }
+
+        Set<String> pinned = new HashSet<>(getIndex().getLatest().values());
+        pinned.addAll(openJars.values());
+
+        blobs.sort(Comparator.comparingLong(CachedJar::getLastAccessed));
+        for (CachedJar blob : blobs) {
+            if (total <= maxCacheBytes) {
+                break;
+            }
+            if (pinned.contains(blob.getSha256())) {
+                continue;
+            }
+            log.debug("Evicting cached JAR: {} ({} bytes)", blob.getKey(), diskSize(blob));
+            total -= diskSize(blob);
+            removeBlob(blob.getSha256());
+        }
+
+        if (total > maxCacheBytes) {
+            log.debug("JAR cache holds {} bytes in JARs which are current or in use, above the {} byte limit.", total, maxCacheBytes);
+        }
+    }
+
+    /**
+     * @param cached CachedJar the cached JAR
+     * @return long the size of the JAR and its Kraken pack, if one has been built, in bytes.
+     */
+    private long diskSize(CachedJar cached) {
+        Path pack = cacheDir.resolve(cached.getSha256() + PACK_EXTENSION);
+        try {
+            return cached.getSize() + (Files.exists(pack) ? Files.size(pack) : 0);
+        } catch (IOException e) {
+            return cached.getSize();
+        }
+    }
+
+    private void removeBlob(String sha256) {
+        getIndex().getBlobs().remove(sha256);
+        getIndex().getLatest().values().removeIf(sha256::equals);
+        try {
+            Files.deleteIfExists(blobPath(sha256));
+            Files.deleteIfExists(cacheDir.resolve(sha256 + PACK_EXTENSION));
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to delete cached JAR: {}. Error = {}", sha256, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the path of the Kraken pack built from the JAR with the given hash. The cache directory is created if
+     * it does not exist yet.
+     * @param sha256 String SHA-256 of the JAR
+     * @return Path to the pack file
+     * @throws IOException When the cache directory cannot be created.
+     */
+    public Path packPath(String sha256) throws IOException {
+        return getCacheDir().resolve(sha256 + PACK_EXTENSION);
+    }
+
+    /**
+     * @return Path the cache directory, created if it does not exist yet.
+     * @throws IOException When the cache directory cannot be created.
+     */
+    public Path getCacheDir() throws IOException {
+        Files.createDirectories(cacheDir);
+        return cacheDir;
+    }
+
+    private Path blobPath(String sha256) {
+        return cacheDir.resolve(sha256 + JAR_EXTENSION);
+    }
+
+    /**
+     * Locks the index against other processes and drops the in memory copy so it is re-read from disk, picking up
+     * changes other processes made since it was last read.
+     */
+    private ProcessLock lockIndex() {
+        ProcessLock lock = ProcessLock.tryAcquire(cacheDir.resolve(INDEX_LOCK_FILE));
+        index = null;
+        return lock;
+    }
+
+    private JarCacheIndex getIndex() {
+        if (index != null) {
+            return index;
+        }
+
+        File indexFile = cacheDir.resolve(INDEX_FILE).toFile();
+        if (indexFile.exists() && indexFile.length() > 0) {
+            try {
+                index = mapper.readValue(indexFile, JarCacheIndex.class);
+                return index;
+            } catch (IOException e) {
+                log.error("IOException thrown while attempting to load the JAR cache index. Error = {}", e.getMessage());
+            }
+        }
+        index = new JarCacheIndex();
+        return index;
+    }
+
+    private void writeIndex() {
+        try {
+            Files.createDirectories(cacheDir);
+            Path tmp = Files.createTempFile(cacheDir, INDEX_FILE, ".tmp");
+            mapper.writeValue(tmp.toFile(), getIndex());
+            Files.move(tmp, cacheDir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to write the JAR cache index. Error = {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Computes the hex encoded SHA-256 of the remaining bytes in a buffer. The buffer's position is not modified.
+     * @param bytes ByteBuffer bytes to hash
+     * @return String hex encoded hash
+     */
+    public static String sha256(ByteBuffer bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes.duplicate());
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Provides the process wide cache to every injector. The cache is created on first use so loading this class does
+     * not resolve the RuneLite directory.
+     */
+    public static class SharedInstanceProvider implements Provider<JarCache> {
+        private static final JarCache INSTANCE = new JarCache();
+
+        @Override
+        public JarCache get() {
+            return INSTANCE;
+        }
+    }
+}
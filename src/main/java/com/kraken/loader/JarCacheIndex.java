@@ -0,0 +1,21 @@
+package com.kraken.loader;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On disk index for the JAR cache. Tracks the latest known version of each plugin JAR alongside every version
+ * (blob) which is still present in the cache directory.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JarCacheIndex {
+    // Cache key -> SHA-256 of the most recently downloaded version of the JAR.
+    private Map<String, String> latest = new HashMap<>();
+
+    // SHA-256 -> Cached JAR blob
+    private Map<String, CachedJar> blobs = new HashMap<>();
+}
@@ -0,0 +1,102 @@
+package com.kraken.loader;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Applies a binary patch to a previous version of a plugin JAR to produce the current version. A patch starts with
+ * the magic number 0x4B524B50 ("KRKP") and a version byte followed by a deflate compressed stream of operations:
+ *
+ * - COPY (1): long offset, int length. Copies a range of the previous version to the output.
+ * - INSERT (2): int length, followed by length bytes which are written to the output.
+ * - END (0): marks the end of the patch.
+ *
+ * Patches are produced by the Kraken API when a plugin is published. Callers must verify the returned hash against
+ * the expected hash of the new version since a patch applied to the wrong base still produces output.
+ */
+public class JarPatcher {
+    private static final int MAGIC = 0x4B524B50;
+    private static final int VERSION = 1;
+
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_INSERT = 2;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private JarPatcher() {}
+
+    /**
+     * Applies a patch to a previous version of a JAR.
+     * @param source ByteBuffer the previous version of the JAR. The buffer's position is not modified.
+     * @param patch InputStream the patch
+     * @param out OutputStream the new version of the JAR is written to
+     * @return String hex encoded SHA-256 of the new version of the JAR
+     * @throws IOException When the patch is malformed, does not fit the source or cannot be read.
+     */
+    public static String apply(ByteBuffer source, InputStream patch, OutputStream out) throws IOException {
+        DataInputStream header = new DataInputStream(patch);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a Kraken JAR patch");
+        }
+        int version = header.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported JAR patch version: " + version);
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        DigestOutputStream target = new DigestOutputStream(out, digest);
+        DataInputStream ops = new DataInputStream(new InflaterInputStream(patch));
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int op;
+        while ((op = ops.readUnsignedByte()) != OP_END) {
+            switch (op) {
+                case OP_COPY:
+                    long offset = ops.readLong();
+                    int length = ops.readInt();
+                    if (offset < 0 || length < 0 || offset + length > source.remaining()) {
+                        throw new IOException("JAR patch copies bytes outside of the previous version");
+                    }
+                    ByteBuffer range = source.duplicate();
+                    range.position(range.position() + (int) offset);
+                    range.limit(range.position() + length);
+                    while (range.hasRemaining()) {
+                        int n = Math.min(buffer.length, range.remaining());
+                        range.get(buffer, 0, n);
+                        target.write(buffer, 0, n);
+                    }
+                    break;
+                case OP_INSERT:
+                    int remaining = ops.readInt();
+                    if (remaining < 0) {
+                        throw new IOException("JAR patch inserts a negative number of bytes");
+                    }
+                    while (remaining > 0) {
+                        int n = Math.min(buffer.length, remaining);
+                        ops.readFully(buffer, 0, n);
+                        target.write(buffer, 0, n);
+                        remaining -= n;
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown JAR patch operation: " + op);
+            }
+        }
+        target.flush();
+        return JarCache.toHex(digest.digest());
+    }
+}
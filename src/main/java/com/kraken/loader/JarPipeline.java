@@ -0,0 +1,492 @@
+package com.kraken.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+/**
+ * Streams a single plugin JAR into a ByteArrayClassLoader. Reading the JAR, inflating its entries, and indexing the
+ * classes into a class store run as three overlapping stages joined by bounded queues, so a slow stage applies
+ * backpressure to the stages before it rather than buffering the whole JAR in memory:
+ *
+ * - download: reads raw JAR bytes into pooled chunks, hashing them and teeing them to the JAR cache.
+ * - inflate: reads entries from the chunks with a JarInputStream into pooled buffers sized from JarEntry.getSize().
+ * - index: (calling thread) appends classes and resources to a Kraken pack (or the configured class store).
+ *
+ * A pipeline instance loads exactly one JAR.
+ */
+@Slf4j
+public class JarPipeline {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int QUEUE_CAPACITY = 8;
+    private static final String CLASS_EXTENSION = ".class";
+
+    // Opt-in mode which keeps undefined classes compressed on the heap instead of in a memory mapped Kraken pack.
+    private static final boolean COMPRESS_CLASSES = Boolean.getBoolean("kraken.compressClasses");
+
+    private final ExecutorService executor;
+    private final BufferPool bufferPool;
+    private final JarCache jarCache;
+    private final String packageName;
+
+    private final Map<String, ByteBuffer> resources = new HashMap<>();
+    private KrakenPack.Writer packWriter;
+    private CompressedClassStore compressedClasses;
+    private Map<String, byte[]> heapClasses;
+    private String sha256;
+    private long size;
+
+    /**
+     * @param executor ExecutorService used to run the download and inflate stages
+     * @param bufferPool BufferPool shared pool of chunk and entry buffers
+     * @param jarCache JarCache the local JAR cache
+     * @param packageName String the name of the package to filter classes for within the JAR file.
+     */
+    public JarPipeline(ExecutorService executor, BufferPool bufferPool, JarCache jarCache, String packageName) {
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.jarCache = jarCache;
+        this.packageName = packageName;
+    }
+
+    /**
+     * Streams a JAR which is being downloaded, storing it in the JAR cache as it is read.
+     * @param in InputStream the JAR download
+     * @param cacheKey String cache key created through JarCache.cacheKey()
+     * @param etag String the S3 ETag of the JAR. May be null.
+     * @return ByteArrayClassLoader for the JAR
+     * @throws IOException When the JAR cannot be downloaded or read.
+     */
+    public ByteArrayClassLoader loadFromNetwork(InputStream in, String cacheKey, String etag) throws IOException {
+        Path tmp = jarCache.createTempFile();
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                run(in, out);
+            }
+            jarCache.commit(cacheKey, etag, tmp, sha256, size);
+            return createClassLoader(cacheKey);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Streams a JAR which has been downloaded to a file in the JAR cache directory, i.e. by a RangedDownloader, and
+     * stores it in the JAR cache. The file is moved into the cache or deleted once the JAR is loaded.
+     * @param file Path the downloaded JAR
+     * @param cacheKey String cache key created through JarCache.cacheKey()
+     * @param etag String the S3 ETag of the JAR. May be null.
+     * @return ByteArrayClassLoader for the JAR
+     * @throws IOException When the JAR cannot be read.
+     */
+    public ByteArrayClassLoader loadFromFile(Path file, String cacheKey, String etag) throws IOException {
+        try {
+            try (InputStream in = Files.newInputStream(file)) {
+                run(in, null);
+            }
+            jarCache.commit(cacheKey, etag, file, sha256, size);
+            return createClassLoader(cacheKey);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Loads a JAR from the JAR cache. When the Kraken pack built from the JAR on a previous launch is still on disk
+     * the pack is opened directly and the JAR is not read at all. Otherwise the JAR is
+     * streamed, verified against the hash it was cached under and removed from the cache if it does not match.
+     * @param cached CachedJar the cached JAR
+     * @return ByteArrayClassLoader for the JAR
+     * @throws IOException When the cached JAR cannot be read or fails its integrity check.
+     */
+    public ByteArrayClassLoader loadFromCache(CachedJar cached) throws IOException {
+        ByteArrayClassLoader packed = loadFromPack(cached);
+        if (packed != null) {
+            return packed;
+        }
+
+        try (InputStream in = jarCache.open(cached)) {
+            run(in, null);
+        }
+
+        if (!cached.getSha256().equals(sha256)) {
+            jarCache.invalidate(cached);
+            discardClassStore();
+            throw new IOException("Cached JAR: " + cached.getKey() + " failed integrity check");
+        }
+        return createClassLoader(cached.getKey());
+    }
+
+    private ByteArrayClassLoader loadFromPack(CachedJar cached) throws IOException {
+        if (COMPRESS_CLASSES) {
+            return null;
+        }
+
+        KrakenPack pack = KrakenPack.open(jarCache.packPath(cached.getSha256()), cached.getSha256());
+        if (pack == null) {
+            return null;
+        }
+
+        log.debug("Loaded JAR: {} from its Kraken pack.", cached.getKey());
+        ByteArrayClassLoader loader = new ByteArrayClassLoader(new PackClassStore(pack, true), pack.getResources());
+        loader.setJarSource(cached.getKey(), cached.getSha256());
+        jarCache.retain(loader, cached.getSha256());
+        return loader;
+    }
+
+    private void run(InputStream in, OutputStream tee) throws IOException {
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Entry> entries = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        MessageDigest digest = sha256Digest();
+
+        openClassStore();
+        Future<Long> download = executor.submit(() -> download(in, tee, digest, chunks));
+        Future<?> inflate = executor.submit(() -> inflate(new ChunkInputStream(chunks, bufferPool), entries));
+
+        try {
+            index(entries);
+            size = download.get();
+            inflate.get();
+            sha256 = JarCache.toHex(digest.digest());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discardClassStore();
+            throw new InterruptedIOException("Interrupted while streaming JAR");
+        } catch (ExecutionException | IOException e) {
+            discardClassStore();
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getCause());
+        } finally {
+            // No-op when the stages completed, otherwise unblocks any stage waiting on a full queue.
+            download.cancel(true);
+            inflate.cancel(true);
+        }
+    }
+
+    /**
+     * Download stage. Reads the raw JAR into pooled chunks and hands them to the inflate stage.
+     */
+    private long download(InputStream in, OutputStream tee, MessageDigest digest, BlockingQueue<Chunk> chunks) throws InterruptedException {
+        long total = 0;
+        try {
+            while (true) {
+                byte[] buffer = bufferPool.acquire(CHUNK_SIZE);
+                int n = in.read(buffer, 0, CHUNK_SIZE);
+                if (n == -1) {
+                    bufferPool.release(buffer);
+                    break;
+                }
+
+                digest.update(buffer, 0, n);
+                if (tee != null) {
+                    tee.write(buffer, 0, n);
+                }
+                total += n;
+                chunks.put(new Chunk(buffer, n, null));
+            }
+            chunks.put(Chunk.END);
+        } catch (IOException e) {
+            chunks.put(new Chunk(null, 0, e));
+        }
+        return total;
+    }
+
+    /**
+     * Inflate stage. Reads each relevant JAR entry into a pooled buffer and hands it to the index stage.
+     */
+    private Void inflate(ChunkInputStream in, BlockingQueue<Entry> entries) throws InterruptedException {
+        try (JarInputStream jarStream = new JarInputStream(in)) {
+            JarEntry jarEntry;
+            while ((jarEntry = jarStream.getNextJarEntry()) != null) {
+                String name = jarEntry.getName();
+                boolean isClass = name.endsWith(CLASS_EXTENSION);
+
+                // Load both classes and anonymous inner classes with $1 in the class name. Every non-class file
+                // is kept as a resource.
+                if (jarEntry.isDirectory() || (isClass && !name.startsWith(packageName))) {
+                    continue;
+                }
+                entries.put(readEntry(jarStream, name, isClass, jarEntry.getSize()));
+            }
+
+            // The JarInputStream stops at the central directory. Drain the rest of the JAR so it is fully hashed and cached.
+            in.drain();
+            entries.put(Entry.END);
+        } catch (IOException e) {
+            entries.put(new Entry(null, null, 0, false, e));
+        }
+        return null;
+    }
+
+    /**
+     * Index stage. Appends classes and resources to the pack or class store until the inflate stage finishes.
+     */
+    private void index(BlockingQueue<Entry> entries) throws InterruptedException, IOException {
+        while (true) {
+            Entry entry = entries.take();
+            if (entry == Entry.END) {
+                return;
+            }
+            if (entry.error != null) {
+                throw entry.error;
+            }
+
+            if (!entry.isClass) {
+                // Images, JSON data, properties, etc... served through the loader's getResource methods
+                if (packWriter != null) {
+                    packWriter.appendResource(entry.name, entry.buffer, 0, entry.length);
+                } else {
+                    resources.put(entry.name, ByteBuffer.wrap(entry.buffer, 0, entry.length).asReadOnlyBuffer());
+                }
+                continue;
+            }
+
+            String className = entry.name.substring(0, entry.name.length() - CLASS_EXTENSION.length())
+                    .replace('/', '.');
+            log.debug("Adding potential plugin class: {}", className);
+            try {
+                if (packWriter != null) {
+                    packWriter.appendClass(className, entry.buffer, 0, entry.length);
+                } else if (compressedClasses != null) {
+                    compressedClasses.append(className, entry.buffer, 0, entry.length);
+                } else {
+                    heapClasses.put(className, Arrays.copyOf(entry.buffer, entry.length));
+                }
+            } finally {
+                bufferPool.release(entry.buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads the current JAR entry into a pooled buffer. Entries which are kept as resources are copied into an
+     * exactly sized array since they live as long as the class loader.
+     */
+    private Entry readEntry(InputStream in, String name, boolean isClass, long sizeHint) throws IOException {
+        byte[] buffer = bufferPool.acquire(sizeHint >= 0 ? (int) sizeHint + 1 : CHUNK_SIZE);
+        int length = 0;
+        int n;
+        while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += n;
+            if (length == buffer.length) {
+                byte[] grown = bufferPool.acquire(buffer.length * 2);
+                System.arraycopy(buffer, 0, grown, 0, length);
+                bufferPool.release(buffer);
+                buffer = grown;
+            }
+        }
+
+        if (!isClass) {
+            byte[] exact = Arrays.copyOf(buffer, length);
+            bufferPool.release(buffer);
+            return new Entry(name, exact, length, false, null);
+        }
+        return new Entry(name, buffer, length, true, null);
+    }
+
+    private void openClassStore() {
+        if (COMPRESS_CLASSES) {
+            compressedClasses = new CompressedClassStore();
+            return;
+        }
+
+        try {
+            packWriter = new KrakenPack.Writer(jarCache.getCacheDir());
+        } catch (IOException e) {
+            log.error("IOException thrown while creating Kraken pack. Classes will be kept on the heap. Error = {}", e.getMessage());
+            heapClasses = new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Throws away everything indexed so far after the pipeline fails.
+     */
+    private void discardClassStore() {
+        closeClassStore();
+        if (compressedClasses != null) {
+            compressedClasses.clear();
+        }
+    }
+
+    private void closeClassStore() {
+        if (packWriter == null) {
+            return;
+        }
+        try {
+            packWriter.close();
+        } catch (IOException e) {
+            log.error("IOException thrown while discarding Kraken pack. Error = {}", e.getMessage());
+        }
+    }
+
+    private ByteArrayClassLoader createClassLoader(String cacheKey) throws IOException {
+        ByteArrayClassLoader loader;
+        if (packWriter != null) {
+            KrakenPack pack;
+            try {
+                pack = packWriter.finish(jarCache.packPath(sha256), sha256);
+            } finally {
+                closeClassStore();
+            }
+            loader = new ByteArrayClassLoader(new PackClassStore(pack, false), pack.getResources());
+        } else if (compressedClasses != null) {
+            loader = new ByteArrayClassLoader(compressedClasses, Collections.unmodifiableMap(resources));
+        } else {
+            loader = new ByteArrayClassLoader(new HeapClassStore(heapClasses), Collections.unmodifiableMap(resources));
+        }
+        loader.setJarSource(cacheKey, sha256);
+        jarCache.retain(loader, sha256);
+        return loader;
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A chunk of the raw JAR passed from the download stage to the inflate stage.
+     */
+    private static class Chunk {
+        static final Chunk END = new Chunk(null, 0, null);
+
+        final byte[] buffer;
+        final int length;
+        final IOException error;
+
+        Chunk(byte[] buffer, int length, IOException error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    /**
+     * An inflated JAR entry passed from the inflate stage to the index stage.
+     */
+    private static class Entry {
+        static final Entry END = new Entry(null, null, 0, false, null);
+
+        final String name;
+        final byte[] buffer;
+        final int length;
+        final boolean isClass;
+        final IOException error;
+
+        Entry(String name, byte[] buffer, int length, boolean isClass, IOException error) {
+            this.name = name;
+            this.buffer = buffer;
+            this.length = length;
+            this.isClass = isClass;
+            this.error = error;
+        }
+    }
+
+    /**
+     * InputStream over the chunks produced by the download stage. Chunk buffers are returned to the pool as soon as
+     * they have been read.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private final BlockingQueue<Chunk> chunks;
+        private final BufferPool bufferPool;
+        private Chunk current;
+        private int position;
+        private boolean eof;
+
+        ChunkInputStream(BlockingQueue<Chunk> chunks, BufferPool bufferPool) {
+            this.chunks = chunks;
+            this.bufferPool = bufferPool;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current.buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current.buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.length - position;
+        }
+
+        /**
+         * Reads and discards the remainder of the stream.
+         */
+        void drain() throws IOException {
+            while (fill()) {
+                position = current.length;
+            }
+        }
+
+        private boolean fill() throws IOException {
+            while (current == null || position == current.length) {
+                if (eof) {
+                    return false;
+                }
+                if (current != null) {
+                    bufferPool.release(current.buffer);
+                    current = null;
+                }
+
+                Chunk next;
+                try {
+                    next = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for JAR download");
+                }
+
+                if (next.error != null) {
+                    throw new IOException("Failed to download JAR", next.error);
+                }
+                if (next == Chunk.END) {
+                    eof = true;
+                    return false;
+                }
+                current = next;
+                position = 0;
+            }
+            return true;
+        }
+    }
+}
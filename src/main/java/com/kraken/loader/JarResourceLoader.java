@@ -1,77 +1,338 @@
 package com.kraken.loader;
 
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kraken.api.model.JarPatch;
 import com.kraken.api.model.PreSignedURL;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 @Slf4j
+@Singleton
 public class JarResourceLoader {
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    // JARs at least this large are downloaded as parallel range requests when S3 answers range requests.
+    private static final long RANGED_DOWNLOAD_THRESHOLD = 4L * 1024 * 1024;
+
+    @Inject
+    private JarCache jarCache;
+
+    @Inject
+    private BandwidthGovernor bandwidthGovernor;
+
+    private final BufferPool bufferPool = new BufferPool();
+    private final ExecutorService pipelineExecutor;
+
+    public JarResourceLoader() {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pipelineExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "kraken-jar-pipeline-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     /**
-     * Reads an InputStream into a byte array using a 16KB buffer for efficiency.
-     * Used to load individual class files from a JAR stream into memory.
-     * @param is InputStream
-     * @return byte[] An array of bytes.
+     * Loads every JAR through loadJarFromSignedUrl() on a bounded pool of threads which is shut down once the JARs are
+     * loaded. JARs which fail to load are logged and skipped.
+     * @param packageName String the name of the package to filter for within the JAR files.
+     * @param urls List of PreSignedURL's, one for each plugin JAR.
+     * @param parallelism int maximum number of JARs which are downloaded at the same time.
+     * @param threadName String prefix of the names of the download threads.
+     * @return List of class loaders for the loaded JARs in URL order or null if the thread was interrupted while
+     * waiting for the JARs.
      */
-    private static byte[] readEntryBytes(InputStream is) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int nRead;
-        byte[] data = new byte[16384];
-
-        while ((nRead = is.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
+    public List<ByteArrayClassLoader> loadJarsFromSignedUrls(String packageName, List<PreSignedURL> urls, int parallelism, String threadName) {
+        List<ByteArrayClassLoader> loaders = new ArrayList<>(urls.size());
+        if (urls.isEmpty()) {
+            return loaders;
         }
 
-        return buffer.toByteArray();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, urls.size()), runnable -> {
+            Thread thread = new Thread(runnable, threadName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<ByteArrayClassLoader>> futures = new ArrayList<>(urls.size());
+            for (PreSignedURL url : urls) {
+                futures.add(executor.submit(() -> loadJarFromSignedUrl(packageName, url)));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    ByteArrayClassLoader loader = futures.get(i).get();
+                    if (loader == null) {
+                        log.error("Failed to download plugin JAR {} of {}. Skipping.", i + 1, urls.size());
+                        continue;
+                    }
+                    loaders.add(loader);
+                } catch (ExecutionException e) {
+                    log.error("Failed to load plugin JAR {} of {}. Error = {}", i + 1, urls.size(), e.getCause().getMessage());
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for plugin JARs to load. Error = {}", e.getMessage());
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+        return loaders;
     }
 
     /**
-     * Loads the class which extends net.runelite.client.plugins.Plugin for each discovered JAR file.
+     * Loads the class which extends net.runelite.client.plugins.Plugin for each discovered JAR file. The JAR is
+     * streamed through a JarPipeline so classes are indexed while the JAR is still downloading. When a cached copy
+     * exists the presigned URL is revalidated with a conditional (If-None-Match) request and the cached copy is used
+     * if S3 reports it is unchanged. Large JARs are downloaded as parallel range requests which resume where they left
+     * off if a previous sync was interrupted. When the URL carries a patch from the cached version to the current one
+     * only the patch is downloaded. Every download is throttled by the global BandwidthGovernor. The cached copy is
+     * also used if the download fails for any reason. Client processes on the same machine take turns downloading
+     * the same JAR, a JAR another process has just downloaded is loaded from the cache without a request.
      * @param packageName String the name of the package to filter for within the JAR file. JAR files often contain many classes
      *                    that are not the plugin classes i.e. dependencies, metadata, etc...
      * @param preSignedURL PreSignedURL A Pre signed S3 url enabling the JAR file to be downloaded.
-     * @return List of Plugin classes.
+     * @return ByteArrayClassLoader for the JAR or null if the JAR could not be downloaded and is not cached.
      */
     public ByteArrayClassLoader loadJarFromSignedUrl(final String packageName, final PreSignedURL preSignedURL) {
-        Map<String, byte[]> classData = new HashMap<>();
-        URLConnection connection;
+        URL url;
+        try {
+            url = new URL(preSignedURL.getUrl());
+        } catch (MalformedURLException e) {
+            log.error("Malformed pre signed url. Error = {}", e.getMessage());
+            return null;
+        }
+
+        // Only one client process downloads a given JAR at a time, the others wait and load the JAR it cached.
+        String cacheKey = JarCache.cacheKey(url);
+        try (ProcessLock lock = jarCache.lock(cacheKey)) {
+            return loadJar(packageName, preSignedURL, url, cacheKey);
+        }
+    }
+
+    private ByteArrayClassLoader loadJar(String packageName, PreSignedURL preSignedURL, URL url, String cacheKey) {
+        CachedJar cached = jarCache.get(cacheKey);
+        if (cached != null && jarCache.isRecentlyVerified(cached)) {
+            log.debug("JAR: {} was verified moments ago, loading from cache.", cacheKey);
+            ByteArrayClassLoader loader = loadCached(packageName, cached);
+            if (loader != null) {
+                return loader;
+            }
+            cached = jarCache.get(cacheKey);
+        }
+
+        JarPatch patch = findPatch(preSignedURL, cached);
+        if (patch != null) {
+            ByteArrayClassLoader loader = loadPatched(packageName, cacheKey, cached, patch);
+            if (loader != null) {
+                return loader;
+            }
+            log.info("Falling back to a full download of JAR: {}", cacheKey);
+        }
 
         try {
-            URL url = new URL(preSignedURL.getUrl());
-            connection = url.openConnection();
+            HttpURLConnection connection = openProbe(url);
+            if (cached != null && cached.getEtag() != null) {
+                connection.setRequestProperty("If-None-Match", cached.getEtag());
+            }
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                connection.disconnect();
+                log.debug("JAR: {} is unchanged, loading from cache.", cacheKey);
+                ByteArrayClassLoader loader = loadCached(packageName, cached);
+                if (loader != null) {
+                    jarCache.markVerified(cached);
+                    return loader;
+                }
+
+                // The cached copy was lost or corrupt, download it again without the conditional header.
+                connection = openProbe(url);
+                status = connection.getResponseCode();
+            }
+
+            if (status == HttpURLConnection.HTTP_PARTIAL) {
+                long size = contentRangeSize(connection.getHeaderField("Content-Range"));
+                String etag = connection.getHeaderField("ETag");
+                // Reading the single byte body lets the connection be reused by the next request.
+                try (InputStream in = connection.getInputStream()) {
+                    in.readAllBytes();
+                }
+
+                if (size >= RANGED_DOWNLOAD_THRESHOLD) {
+                    return loadRanged(packageName, url, cacheKey, etag, size, cached);
+                }
+                connection = openConnection(url);
+                status = connection.getResponseCode();
+            }
+
+            // A server which ignores the Range header answers the probe with the whole JAR.
+            if (status != HttpURLConnection.HTTP_OK) {
+                log.error("Unexpected response code: {} while downloading JAR: {}", status, cacheKey);
+                connection.disconnect();
+                return loadCachedFallback(packageName, cached);
+            }
+
+            try (InputStream is = new ThrottledInputStream(connection.getInputStream(), bandwidthGovernor)) {
+                return new JarPipeline(pipelineExecutor, bufferPool, jarCache, packageName)
+                        .loadFromNetwork(is, cacheKey, connection.getHeaderField("ETag"));
+            }
         } catch (IOException e) {
-            log.error("IOException thrown while attempting to open connection to pre signed url. Error = {}", e.getMessage());
+            log.error("IOException thrown while attempting to download JAR from pre signed url. Error = {}", e.getMessage());
+            return loadCachedFallback(packageName, cached);
+        }
+    }
+
+    /**
+     * Finds a patch which upgrades the cached version of a JAR to the current version.
+     * @param preSignedURL PreSignedURL the presigned URL and patches for the current version of the JAR
+     * @param cached CachedJar the cached version of the JAR. May be null.
+     * @return JarPatch which applies to the cached version or null if there is none.
+     */
+    private JarPatch findPatch(PreSignedURL preSignedURL, CachedJar cached) {
+        if (cached == null || preSignedURL.getPatches() == null) {
             return null;
         }
 
-        try (JarInputStream jarStream = new JarInputStream(connection.getInputStream())) {
-            JarEntry entry;
-            while ((entry = jarStream.getNextJarEntry()) != null) {
-                String name = entry.getName();
+        for (JarPatch patch : preSignedURL.getPatches()) {
+            if (cached.getSha256().equals(patch.getFromSha256()) && !cached.getSha256().equals(patch.getToSha256())) {
+                return patch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Downloads a patch and applies it to the cached version of a JAR. The patched JAR is only loaded when its hash
+     * matches the hash of the current version.
+     * @return ByteArrayClassLoader for the patched JAR or null if the patch could not be applied.
+     */
+    private ByteArrayClassLoader loadPatched(String packageName, String cacheKey, CachedJar cached, JarPatch patch) {
+        Path tmp = null;
+        try {
+            HttpURLConnection connection = openConnection(new URL(patch.getUrl()));
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                connection.disconnect();
+                log.error("Unexpected response code: {} while downloading patch for JAR: {}", status, cacheKey);
+                return null;
+            }
 
-                // Load both classes and anonymous inner classes with $1 in the class name
-                if (name.endsWith(".class") && name.startsWith(packageName)) {
-                    byte[] classBytes = readEntryBytes(jarStream);
-                    String className = name.substring(0, name.length() - 6)
-                            .replace('/', '.');
+            tmp = jarCache.createTempFile();
+            String sha256;
+            try (InputStream in = new ThrottledInputStream(connection.getInputStream(), bandwidthGovernor); OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                sha256 = JarPatcher.apply(jarCache.map(cached), in, out);
+            }
 
-                    log.debug("Adding potential plugin class: {}", className);
-                    classData.put(className, classBytes);
-                }
+            if (!sha256.equals(patch.getToSha256())) {
+                log.error("Patched JAR: {} does not match the expected hash.", cacheKey);
+                Files.deleteIfExists(tmp);
+                return null;
             }
-        }  catch (IOException e) {
-            log.error("Failed to read jar classes into a byte array {}", e.getMessage());
+
+            log.info("Patched JAR: {} from {} to {}", cacheKey, cached.getSha256(), sha256);
+            return new JarPipeline(pipelineExecutor, bufferPool, jarCache, packageName).loadFromFile(tmp, cacheKey, patch.getEtag());
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to patch JAR: {}. Error = {}", cacheKey, e.getMessage());
+            deleteQuietly(tmp);
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to delete: {}. Error = {}", file, e.getMessage());
+        }
+    }
+
+    private ByteArrayClassLoader loadRanged(String packageName, URL url, String cacheKey, String etag, long size, CachedJar cached) throws IOException {
+        Path part = jarCache.partialDownloadPath(cacheKey);
+        try {
+            new RangedDownloader(pipelineExecutor, bufferPool, bandwidthGovernor, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS).download(url, part, etag, size);
+        } catch (IOException e) {
+            log.error("IOException thrown during ranged download of JAR: {}, it will be resumed on the next sync. Error = {}", cacheKey, e.getMessage());
+            return loadCachedFallback(packageName, cached);
+        }
+        return new JarPipeline(pipelineExecutor, bufferPool, jarCache, packageName).loadFromFile(part, cacheKey, etag);
+    }
+
+    /**
+     * Opens a request for the first byte of a JAR. The Content-Range of a partial response carries the size of the
+     * JAR, so a large JAR can be downloaded as parallel ranges without a full download being started first. Presigned
+     * URLs are only signed for GET requests which rules out a HEAD request.
+     */
+    private HttpURLConnection openProbe(URL url) throws IOException {
+        HttpURLConnection connection = openConnection(url);
+        connection.setRequestProperty("Range", "bytes=0-0");
+        return connection;
+    }
+
+    /**
+     * Reads the complete length from a Content-Range header i.e. bytes 0-0/5242880
+     * @return long the size of the JAR in bytes or -1 if the header is missing or the length is unknown.
+     */
+    private static long contentRangeSize(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+
+        int slash = contentRange.lastIndexOf('/');
+        try {
+            return slash == -1 ? -1 : Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    private ByteArrayClassLoader loadCachedFallback(String packageName, CachedJar cached) {
+        if (cached == null) {
+            return null;
+        }
+        log.info("Falling back to cached copy of JAR: {}", cached.getKey());
+        return loadCached(packageName, cached);
+    }
+
+    private ByteArrayClassLoader loadCached(String packageName, CachedJar cached) {
+        try {
+            return new JarPipeline(pipelineExecutor, bufferPool, jarCache, packageName).loadFromCache(cached);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to load cached JAR: {}. Error = {}", cached.getKey(), e.getMessage());
+            return null;
         }
-        return new ByteArrayClassLoader(classData);
     }
 }
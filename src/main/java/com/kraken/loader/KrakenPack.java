@@ -0,0 +1,533 @@
+package com.kraken.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Memory mapped, pre-indexed archive of the classes and resources extracted from a plugin JAR. A pack is built once
+ * while a JAR streams through the JarPipeline and is stored next to the cached JAR, so later launches load plugins
+ * straight from the pack without reading, inflating or hashing the JAR.
+ *
+ * The layout of a pack is:
+ *
+ * - header: magic number ("KPAK"), version, SHA-256 of the JAR, entry counts and the offsets of the tables below.
+ * - data: class files and resources back to back. Classes are stored uncompressed so they are defined directly from
+ *   the mapping, resources are deflated when that makes them meaningfully smaller.
+ * - names: UTF-8 entry and superclass names referenced by the tables.
+ * - class table and resource table: fixed size entries sorted by the unsigned UTF-8 bytes of their name, each
+ *   recording the name, superclass, offset, stored and uncompressed size, flags and SHA-256 of an entry.
+ *
+ * Fixed size, sorted tables let any class or resource be found with a binary search over the mapping in O(log n)
+ * without building an index on the heap.
+ */
+@Slf4j
+public class KrakenPack {
+    private static final int MAGIC = 0x4B50414B;
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_SIZE = 64;
+
+    // nameOffset, nameLength, superclassNameOffset, superclassNameLength, dataOffset, storedSize, size, flags (+ padding), sha256
+    private static final int ENTRY_SIZE = 4 + 4 + 4 + 4 + 8 + 4 + 4 + 4 + HASH_LENGTH;
+    private static final int FLAG_COMPRESSED = 1;
+
+    // Resources are only kept compressed when deflating them saves at least this fraction of their size.
+    private static final double MIN_COMPRESSION_SAVINGS = 0.1;
+
+    private final MappedByteBuffer mapped;
+    private final String jarSha256;
+    private final Table classes;
+    private final Table resources;
+
+    private KrakenPack(MappedByteBuffer mapped, String jarSha256, Table classes, Table resources) {
+        this.mapped = mapped;
+        this.jarSha256 = jarSha256;
+        this.classes = classes;
+        this.resources = resources;
+    }
+
+    /**
+     * Opens a pack which was built on a previous launch.
+     * @param file Path the pack file
+     * @param jarSha256 String SHA-256 of the JAR the pack is expected to have been built from
+     * @return KrakenPack or null if the pack does not exist, is malformed or was built from a different JAR.
+     * @throws IOException When the pack cannot be mapped.
+     */
+    public static KrakenPack open(Path file, String jarSha256) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (mapped.getInt(0) != MAGIC || mapped.get(4) != VERSION) {
+            log.error("Kraken pack: {} has an unsupported format.", file);
+            return null;
+        }
+
+        byte[] hash = new byte[HASH_LENGTH];
+        mapped.duplicate().position(8).get(hash);
+        if (!JarCache.toHex(hash).equals(jarSha256)) {
+            return null;
+        }
+
+        int classCount = mapped.getInt(40);
+        int resourceCount = mapped.getInt(44);
+        long tableOffset = mapped.getLong(48);
+        long namesOffset = mapped.getLong(56);
+        if (classCount < 0 || resourceCount < 0 || namesOffset > tableOffset
+                || tableOffset + (long) (classCount + resourceCount) * ENTRY_SIZE != mapped.capacity()) {
+            log.error("Kraken pack: {} is truncated or corrupt.", file);
+            return null;
+        }
+
+        Table classes = new Table(mapped, (int) tableOffset, classCount, (int) namesOffset);
+        Table resources = new Table(mapped, (int) tableOffset + classCount * ENTRY_SIZE, resourceCount, (int) namesOffset);
+        return new KrakenPack(mapped, jarSha256, classes, resources);
+    }
+
+    /**
+     * @return String SHA-256 of the JAR this pack was built from.
+     */
+    public String getJarSha256() {
+        return jarSha256;
+    }
+
+    /**
+     * @return List of binary class names held by the pack in table order.
+     */
+    public List<String> getClassNames() {
+        List<String> names = new ArrayList<>(classes.count);
+        for (int i = 0; i < classes.count; i++) {
+            names.add(classes.name(i));
+        }
+        return names;
+    }
+
+    /**
+     * @param className String binary name of the class
+     * @return int position of the class in the class table or -1 if the pack does not hold the class.
+     */
+    public int findClass(String className) {
+        return classes.find(className);
+    }
+
+    /**
+     * @param entry int position of the class in the class table
+     * @return String binary name of the superclass or null if the class extends java.lang.Object or could not be read.
+     */
+    public String getSuperclassName(int entry) {
+        return classes.superclassName(entry);
+    }
+
+    /**
+     * @param entry int position of the class in the class table
+     * @return String hex encoded SHA-256 of the class file.
+     */
+    public String getClassHash(int entry) {
+        return classes.sha256(entry);
+    }
+
+    /**
+     * @param entry int position of the class in the class table
+     * @return ByteBuffer read-only view of the class file.
+     */
+    public ByteBuffer readClass(int entry) {
+        return classes.read(entry);
+    }
+
+    /**
+     * @return Map view of the resources held by the pack keyed by their JAR path. Lookups are binary searches over
+     * the mapping and compressed resources are inflated each time they are read.
+     */
+    public Map<String, ByteBuffer> getResources() {
+        return new ResourceMap(resources);
+    }
+
+    /**
+     * A class or resource table within the mapping.
+     */
+    private static class Table {
+        final ByteBuffer mapped;
+        final int offset;
+        final int count;
+        final int namesOffset;
+
+        Table(ByteBuffer mapped, int offset, int count, int namesOffset) {
+            this.mapped = mapped;
+            this.offset = offset;
+            this.count = count;
+            this.namesOffset = namesOffset;
+        }
+
+        int find(String name) {
+            byte[] key = name.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compareName(mid, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int compareName(int entry, byte[] key) {
+            int base = offset + entry * ENTRY_SIZE;
+            int nameOffset = namesOffset + mapped.getInt(base);
+            int nameLength = mapped.getInt(base + 4);
+            int length = Math.min(nameLength, key.length);
+            for (int i = 0; i < length; i++) {
+                int cmp = Integer.compare(mapped.get(nameOffset + i) & 0xFF, key[i] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return Integer.compare(nameLength, key.length);
+        }
+
+        String name(int entry) {
+            int base = offset + entry * ENTRY_SIZE;
+            return string(mapped.getInt(base), mapped.getInt(base + 4));
+        }
+
+        String superclassName(int entry) {
+            int base = offset + entry * ENTRY_SIZE;
+            int nameOffset = mapped.getInt(base + 8);
+            return nameOffset < 0 ? null : string(nameOffset, mapped.getInt(base + 12));
+        }
+
+        String sha256(int entry) {
+            byte[] hash = new byte[HASH_LENGTH];
+            ByteBuffer view = mapped.duplicate();
+            view.position(offset + entry * ENTRY_SIZE + ENTRY_SIZE - HASH_LENGTH);
+            view.get(hash);
+            return JarCache.toHex(hash);
+        }
+
+        ByteBuffer read(int entry) {
+            int base = offset + entry * ENTRY_SIZE;
+            int dataOffset = (int) mapped.getLong(base + 16);
+            int storedSize = mapped.getInt(base + 24);
+            int size = mapped.getInt(base + 28);
+            int flags = mapped.getInt(base + 32);
+
+            ByteBuffer stored = mapped.duplicate();
+            stored.position(dataOffset).limit(dataOffset + storedSize);
+            stored = stored.slice();
+            if ((flags & FLAG_COMPRESSED) == 0) {
+                return stored.asReadOnlyBuffer();
+            }
+            return ByteBuffer.wrap(inflate(stored, size)).asReadOnlyBuffer();
+        }
+
+        private String string(int nameOffset, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer view = mapped.duplicate();
+            view.position(namesOffset + nameOffset);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] inflate(ByteBuffer compressed, int size) {
+        byte[] input = new byte[compressed.remaining()];
+        compressed.get(input);
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] bytes = new byte[size];
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int n = inflater.inflate(bytes, length, size - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated pack entry");
+                }
+                length += n;
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Kraken pack entry is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Read-only map over a resource table. Only get() and containsKey() are used on the class loading path, both of
+     * which are binary searches.
+     */
+    private static class ResourceMap extends AbstractMap<String, ByteBuffer> {
+        private final Table table;
+
+        ResourceMap(Table table) {
+            this.table = table;
+        }
+
+        @Override
+        public ByteBuffer get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            int entry = table.find((String) key);
+            return entry < 0 ? null : table.read(entry);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && table.find((String) key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return table.count;
+        }
+
+        @Override
+        public Set<Entry<String, ByteBuffer>> entrySet() {
+            return new AbstractSet<Entry<String, ByteBuffer>>() {
+                @Override
+                public Iterator<Entry<String, ByteBuffer>> iterator() {
+                    return new Iterator<Entry<String, ByteBuffer>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < table.count;
+                        }
+
+                        @Override
+                        public Entry<String, ByteBuffer> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int entry = next++;
+                            return new SimpleImmutableEntry<>(table.name(entry), table.read(entry));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return table.count;
+                }
+            };
+        }
+    }
+
+    /**
+     * Builds a pack incrementally as entries are read from a JAR. Entry data is written to a temporary file as it
+     * arrives and the name pool, tables and header are written once the hash of the JAR is known. Closing a writer
+     * which was never finished discards the temporary file.
+     */
+    public static class Writer implements Closeable {
+        private final Path tmp;
+        private final FileChannel channel;
+        private final List<PendingEntry> classEntries = new ArrayList<>();
+        private final List<PendingEntry> resourceEntries = new ArrayList<>();
+        private long position = HEADER_SIZE;
+
+        /**
+         * @param dir Path the directory the pack will be written to
+         * @throws IOException When the temporary pack file cannot be created.
+         */
+        public Writer(Path dir) throws IOException {
+            this.tmp = Files.createTempFile(dir, "pack", ".tmp");
+            this.channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Appends a class to the pack. The bytes are copied to disk so the buffer may be reused once this returns.
+         * @param className String binary name of the class
+         * @param bytes byte[] buffer holding the class file
+         * @param offset int offset of the class file within the buffer
+         * @param length int length of the class file
+         * @throws IOException When the class cannot be written.
+         */
+        public void appendClass(String className, byte[] bytes, int offset, int length) throws IOException {
+            ByteBuffer classFile = ByteBuffer.wrap(bytes, offset, length).slice();
+            String superclassName = ClassFileReader.readSuperclassName(classFile);
+            classEntries.add(write(className, superclassName, JarCache.sha256(classFile), classFile, length, 0));
+        }
+
+        /**
+         * Appends a non-class resource to the pack, compressing it if that makes it meaningfully smaller. The bytes
+         * are copied so the buffer may be reused once this returns.
+         * @param name String path of the resource within the JAR
+         * @param bytes byte[] buffer holding the resource
+         * @param offset int offset of the resource within the buffer
+         * @param length int length of the resource
+         * @throws IOException When the resource cannot be written.
+         */
+        public void appendResource(String name, byte[] bytes, int offset, int length) throws IOException {
+            String sha256 = JarCache.sha256(ByteBuffer.wrap(bytes, offset, length));
+            byte[] compressed = deflate(bytes, offset, length);
+            if (compressed.length <= length * (1 - MIN_COMPRESSION_SAVINGS)) {
+                resourceEntries.add(write(name, null, sha256, ByteBuffer.wrap(compressed), length, FLAG_COMPRESSED));
+            } else {
+                resourceEntries.add(write(name, null, sha256, ByteBuffer.wrap(bytes, offset, length), length, 0));
+            }
+        }
+
+        private PendingEntry write(String name, String superclassName, String sha256, ByteBuffer data, int size, int flags) throws IOException {
+            PendingEntry entry = new PendingEntry(name, superclassName, sha256, position, data.remaining(), size, flags);
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+            return entry;
+        }
+
+        /**
+         * Writes the name pool, tables and header, moves the pack into place and maps it. Packs are named by the hash
+         * of the JAR they were built from so an existing pack of the same size is reused rather than replaced (it may
+         * already be mapped by another client).
+         * @param file Path the pack file
+         * @param jarSha256 String SHA-256 of the JAR the pack was built from
+         * @return KrakenPack
+         * @throws IOException When the pack cannot be written, moved or mapped.
+         */
+        public KrakenPack finish(Path file, String jarSha256) throws IOException {
+            Comparator<PendingEntry> byName = (a, b) -> Arrays.compareUnsigned(a.nameBytes, b.nameBytes);
+            classEntries.sort(byName);
+            resourceEntries.sort(byName);
+
+            ByteArrayOutputStream names = new ByteArrayOutputStream();
+            long namesOffset = position;
+            ByteBuffer tables = ByteBuffer.allocate((classEntries.size() + resourceEntries.size()) * ENTRY_SIZE);
+            for (List<PendingEntry> entries : Arrays.asList(classEntries, resourceEntries)) {
+                for (PendingEntry entry : entries) {
+                    tables.putInt(names.size()).putInt(entry.nameBytes.length);
+                    names.write(entry.nameBytes);
+                    if (entry.superclassName == null) {
+                        tables.putInt(-1).putInt(0);
+                    } else {
+                        byte[] superclassBytes = entry.superclassName.getBytes(StandardCharsets.UTF_8);
+                        tables.putInt(names.size()).putInt(superclassBytes.length);
+                        names.write(superclassBytes);
+                    }
+                    tables.putLong(entry.dataOffset).putInt(entry.storedSize).putInt(entry.size).putInt(entry.flags);
+                    tables.put(fromHex(entry.sha256));
+                }
+            }
+            long tableOffset = namesOffset + names.size();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) VERSION).put(new byte[3]).put(fromHex(jarSha256))
+                    .putInt(classEntries.size()).putInt(resourceEntries.size()).putLong(tableOffset).putLong(namesOffset);
+
+            writeFully(ByteBuffer.wrap(names.toByteArray()), namesOffset);
+            tables.flip();
+            writeFully(tables, tableOffset);
+            header.flip();
+            writeFully(header, 0);
+            channel.close();
+
+            long size = tableOffset + (long) (classEntries.size() + resourceEntries.size()) * ENTRY_SIZE;
+            if (Files.exists(file) && Files.size(file) == size) {
+                Files.delete(tmp);
+            } else {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            KrakenPack pack = open(file, jarSha256);
+            if (pack == null) {
+                throw new IOException("Kraken pack: " + file + " could not be read back after writing it");
+            }
+            log.debug("Packed {} classes and {} resources ({} bytes) into: {}", classEntries.size(), resourceEntries.size(), size, file);
+            return pack;
+        }
+
+        private void writeFully(ByteBuffer bytes, long offset) throws IOException {
+            while (bytes.hasRemaining()) {
+                offset += channel.write(bytes, offset);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            Files.deleteIfExists(tmp);
+        }
+
+        private static byte[] deflate(byte[] bytes, int offset, int length) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(bytes, offset, length);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static byte[] fromHex(String hex) {
+            byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+            }
+            return bytes;
+        }
+    }
+
+    private static class PendingEntry {
+        final byte[] nameBytes;
+        final String superclassName;
+        final String sha256;
+        final long dataOffset;
+        final int storedSize;
+        final int size;
+        final int flags;
+
+        PendingEntry(String name, String superclassName, String sha256, long dataOffset, int storedSize, int size, int flags) {
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.superclassName = superclassName;
+            this.sha256 = sha256;
+            this.dataOffset = dataOffset;
+            this.storedSize = storedSize;
+            this.size = size;
+            this.flags = flags;
+        }
+    }
+}
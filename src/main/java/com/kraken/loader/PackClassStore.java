@@ -0,0 +1,124 @@
+package com.kraken.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ClassStore backed by a memory mapped KrakenPack. Each class is handed to the class loader as a read-only slice of
+ * the mapping so no bytecode is kept on the heap, and every lookup is a binary search over the pack's class table.
+ * Stores opened from a pack built on a previous launch verify each class against its recorded hash as it is loaded.
+ * A class which fails verification stays in the store so every later attempt to load it reports the same error.
+ *
+ * Once every class has been released or taken the store drops its reference to the pack, so the mapping is unmapped
+ * as soon as the loader's resources, which are slices of the same mapping, are no longer reachable either. The
+ * superclass and hash of a class are no longer available from the store after that.
+ */
+@Slf4j
+public class PackClassStore implements ClassStore {
+    private final boolean verifyHashes;
+    private final Set<String> classNames;
+    private final Set<String> taken = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger remaining;
+
+    // Cleared once every class has been released or taken.
+    private volatile KrakenPack pack;
+
+    /**
+     * @param pack KrakenPack the pack holding the classes
+     * @param verifyHashes boolean true to check each class against the hash recorded in the pack when it is taken
+     */
+    public PackClassStore(KrakenPack pack, boolean verifyHashes) {
+        this.pack = pack;
+        this.verifyHashes = verifyHashes;
+        this.classNames = Collections.unmodifiableSet(new LinkedHashSet<>(pack.getClassNames()));
+        this.remaining = new AtomicInteger(classNames.size());
+    }
+
+    @Override
+    public Set<String> getClassNames() {
+        return classNames;
+    }
+
+    @Override
+    public String getSuperclassName(String className) {
+        KrakenPack pack = this.pack;
+        int entry = pack == null ? -1 : pack.findClass(className);
+        return entry < 0 ? null : pack.getSuperclassName(entry);
+    }
+
+    @Override
+    public String getClassHash(String className) {
+        KrakenPack pack = this.pack;
+        int entry = pack == null ? -1 : pack.findClass(className);
+        return entry < 0 ? null : pack.getClassHash(entry);
+    }
+
+    @Override
+    public ByteBuffer peek(String className) {
+        KrakenPack pack = this.pack;
+        int entry = pack == null ? -1 : pack.findClass(className);
+        return entry < 0 || taken.contains(className) ? null : pack.readClass(entry);
+    }
+
+    @Override
+    public ByteBuffer load(String className) {
+        KrakenPack pack = this.pack;
+        int entry = pack == null ? -1 : pack.findClass(className);
+        if (entry < 0 || taken.contains(className)) {
+            return null;
+        }
+
+        ByteBuffer classFile = pack.readClass(entry);
+        if (!isIntact(pack, className, entry, classFile)) {
+            throw new ClassFormatError("Class: " + className + " does not match the hash recorded in its Kraken pack");
+        }
+        return classFile;
+    }
+
+    @Override
+    public void release(String className) {
+        if (classNames.contains(className) && taken.add(className)) {
+            dropPackIfDrained();
+        }
+    }
+
+    @Override
+    public ByteBuffer take(String className) {
+        KrakenPack pack = this.pack;
+        int entry = pack == null ? -1 : pack.findClass(className);
+        if (entry < 0 || taken.contains(className)) {
+            return null;
+        }
+
+        ByteBuffer classFile = pack.readClass(entry);
+        if (!isIntact(pack, className, entry, classFile) || !taken.add(className)) {
+            return null;
+        }
+        dropPackIfDrained();
+        return classFile;
+    }
+
+    /**
+     * Drops the reference to the pack once no class is left to load from it.
+     */
+    private void dropPackIfDrained() {
+        if (remaining.decrementAndGet() == 0) {
+            log.debug("Every class in Kraken pack: {} has been defined. Releasing the pack.", pack.getJarSha256());
+            pack = null;
+        }
+    }
+
+    private boolean isIntact(KrakenPack pack, String className, int entry, ByteBuffer classFile) {
+        if (verifyHashes && !JarCache.sha256(classFile).equals(pack.getClassHash(entry))) {
+            log.error("Class: {} does not match the hash recorded in its Kraken pack.", className);
+            return false;
+        }
+        return true;
+    }
+}
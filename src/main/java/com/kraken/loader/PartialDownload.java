@@ -0,0 +1,22 @@
+package com.kraken.loader;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Progress of a ranged JAR download which is persisted next to the partial file so an interrupted download can be
+ * resumed. The partial file is only resumed when the ETag, size and chunk size all match the new download.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PartialDownload {
+    private String etag;
+    private long size;
+    private int chunkSize;
+
+    // Indexes of the chunks which have been completely written to the partial file.
+    private Set<Integer> completedChunks = new TreeSet<>();
+}
@@ -0,0 +1,98 @@
+package com.kraken.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An exclusive lock shared by every client process on the machine, backed by an OS file lock on a lock file. File
+ * locks are held by the whole JVM so threads of the same process are serialized through an in-process lock first.
+ * The lock is reentrant for the thread which holds it. Locks are released by closing them, preferably through
+ * try-with-resources:
+ *
+ * try (ProcessLock lock = ProcessLock.acquire(path)) { ... }
+ */
+@Slf4j
+public final class ProcessLock implements Closeable {
+    private static final Map<Path, ReentrantLock> localLocks = new ConcurrentHashMap<>();
+
+    private final ReentrantLock localLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private ProcessLock(ReentrantLock localLock, FileChannel channel, FileLock fileLock) {
+        this.localLock = localLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Acquires the lock, blocking until no other thread or process holds it. The lock file and its parent directories
+     * are created if they do not exist.
+     * @param lockFile Path the lock file
+     * @return ProcessLock the held lock
+     * @throws IOException When the lock file cannot be created or locked.
+     */
+    public static ProcessLock acquire(Path lockFile) throws IOException {
+        Path path = lockFile.toAbsolutePath().normalize();
+        ReentrantLock localLock = localLocks.computeIfAbsent(path, p -> new ReentrantLock());
+        localLock.lock();
+        if (localLock.getHoldCount() > 1) {
+            // The file lock is already held by this thread.
+            return new ProcessLock(localLock, null, null);
+        }
+
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new ProcessLock(localLock, channel, channel.lock());
+        } catch (IOException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Acquires the lock, logging instead of failing when the lock file cannot be locked i.e. on a read only file
+     * system. Callers continue without cross process coordination in that case.
+     * @param lockFile Path the lock file
+     * @return ProcessLock the held lock or null if it could not be acquired.
+     */
+    public static ProcessLock tryAcquire(Path lockFile) {
+        try {
+            return acquire(lockFile);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to lock: {}. Continuing without the lock. Error = {}", lockFile, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to release a file lock. Error = {}", e.getMessage());
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
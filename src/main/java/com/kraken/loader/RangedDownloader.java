@@ -0,0 +1,265 @@
+package com.kraken.loader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a large JAR as a set of HTTP Range requests which are fetched in parallel over the same presigned URL.
+ * Chunks are written directly to their offset in a partial file in the JAR cache directory and the completed chunks
+ * are recorded alongside it, so a download which fails part way is resumed from the missing chunks the next time
+ * the JAR is synced rather than started again. Each chunk is retried a few times before the download gives up.
+ *
+ * Range requests carry an If-Range header with the ETag of the JAR so a JAR which changes mid download is detected
+ * rather than stitched together from two versions.
+ *
+ * When a chunk fails for good the other workers are stopped and their connections closed, and the download only
+ * returns once every worker has finished, so nothing writes to the partial file or its progress after it returns.
+ */
+@Slf4j
+public class RangedDownloader {
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int PARALLELISM = 4;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String STATE_EXTENSION = ".json";
+
+    private final ExecutorService executor;
+    private final BufferPool bufferPool;
+    private final BandwidthGovernor bandwidthGovernor;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    /**
+     * @param executor ExecutorService used to fetch chunks in parallel
+     * @param bufferPool BufferPool shared pool of copy buffers
+     * @param bandwidthGovernor BandwidthGovernor global limiter every chunk download is throttled by
+     * @param connectTimeout int connect timeout for each range request in milliseconds
+     * @param readTimeout int read timeout for each range request in milliseconds
+     */
+    public RangedDownloader(ExecutorService executor, BufferPool bufferPool, BandwidthGovernor bandwidthGovernor, int connectTimeout, int readTimeout) {
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.bandwidthGovernor = bandwidthGovernor;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Downloads a JAR into a partial file, resuming from any chunks a previous attempt already completed.
+     * @param url URL the presigned URL of the JAR
+     * @param part Path the partial file to download into
+     * @param etag String the ETag of the JAR. May be null in which case the partial file is never resumed.
+     * @param size long the size of the JAR in bytes
+     * @throws IOException When a chunk cannot be downloaded after retrying. Completed chunks are kept for the next attempt.
+     */
+    public void download(URL url, Path part, String etag, long size) throws IOException {
+        Path statePath = part.resolveSibling(part.getFileName() + STATE_EXTENSION);
+        PartialDownload state = readState(statePath);
+        if (etag == null || state == null || !etag.equals(state.getEtag()) || state.getSize() != size || state.getChunkSize() != CHUNK_SIZE) {
+            Files.deleteIfExists(part);
+            state = new PartialDownload();
+            state.setEtag(etag);
+            state.setSize(size);
+            state.setChunkSize(CHUNK_SIZE);
+        } else {
+            log.info("Resuming download of JAR: {} with {} chunk(s) already complete.", part.getFileName(), state.getCompletedChunks().size());
+        }
+
+        int chunkCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        Queue<Integer> missing = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (!state.getCompletedChunks().contains(i)) {
+                missing.add(i);
+            }
+        }
+
+        final PartialDownload progress = state;
+        Transfer transfer = new Transfer();
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.min(PARALLELISM, missing.size()); i++) {
+                workers.add(executor.submit(() -> {
+                    Integer chunk;
+                    while ((chunk = missing.poll()) != null) {
+                        fetchChunk(url, etag, channel, chunk, size, transfer);
+                        synchronized (progress) {
+                            progress.getCompletedChunks().add(chunk);
+                            writeState(statePath, progress);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            try {
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+            } catch (InterruptedException e) {
+                stop(workers, missing, transfer);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading JAR");
+            } catch (ExecutionException e) {
+                // The chunks completed so far are kept.
+                stop(workers, missing, transfer);
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        Files.deleteIfExists(statePath);
+    }
+
+    /**
+     * Stops the remaining workers from picking up new chunks, closes the connections of chunks in flight and waits
+     * for every worker to finish. Workers are not interrupted since interrupting a thread which is writing to the
+     * partial file would close the file for every worker.
+     */
+    private static void stop(List<Future<?>> workers, Queue<Integer> missing, Transfer transfer) {
+        missing.clear();
+        transfer.stop();
+
+        boolean interrupted = false;
+        for (Future<?> worker : workers) {
+            while (true) {
+                try {
+                    worker.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fetchChunk(URL url, String etag, FileChannel channel, int chunk, long size, Transfer transfer) throws IOException {
+        long start = (long) chunk * CHUNK_SIZE;
+        long end = Math.min(start + CHUNK_SIZE, size) - 1;
+
+        IOException failure = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                fetchRange(url, etag, channel, start, end, transfer);
+                return;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                log.debug("Attempt {} of {} to download bytes {}-{} failed. Error = {}", attempt, MAX_ATTEMPTS, start, end, e.getMessage());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private void fetchRange(URL url, String etag, FileChannel channel, long start, long end, Transfer transfer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        if (etag != null) {
+            connection.setRequestProperty("If-Range", etag);
+        }
+
+        transfer.open(connection);
+        try {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_PARTIAL) {
+                // A 200 means the JAR changed since the download started (or the server ignored the range).
+                throw new IOException("Unexpected response code: " + status + " for range request");
+            }
+
+            byte[] buffer = bufferPool.acquire(COPY_BUFFER_SIZE);
+            try (InputStream in = new ThrottledInputStream(connection.getInputStream(), bandwidthGovernor)) {
+                long position = start;
+                int n;
+                while (position <= end && (n = in.read(buffer, 0, (int) Math.min(buffer.length, end + 1 - position))) != -1) {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                    while (bytes.hasRemaining()) {
+                        position += channel.write(bytes, position);
+                    }
+                }
+                if (position != end + 1) {
+                    throw new IOException("Range request ended after " + (position - start) + " of " + (end + 1 - start) + " bytes");
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        } finally {
+            transfer.close(connection);
+        }
+    }
+
+    private PartialDownload readState(Path statePath) {
+        File stateFile = statePath.toFile();
+        if (!stateFile.exists()) {
+            return null;
+        }
+
+        try {
+            return mapper.readValue(stateFile, PartialDownload.class);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to read partial download state. Error = {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeState(Path statePath, PartialDownload state) throws IOException {
+        Path tmp = Files.createTempFile(statePath.getParent(), statePath.getFileName().toString(), ".tmp");
+        mapper.writeValue(tmp.toFile(), state);
+        Files.move(tmp, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Connections of the chunks in flight, closed from the downloading thread to stop the workers.
+     */
+    private static class Transfer {
+        private final Set<HttpURLConnection> connections = ConcurrentHashMap.newKeySet();
+        private volatile boolean stopped;
+
+        void open(HttpURLConnection connection) throws InterruptedIOException {
+            connections.add(connection);
+            // Checked after registering so a connection opened while stop() runs is closed by one or the other.
+            if (stopped) {
+                close(connection);
+                throw new InterruptedIOException("Download was stopped");
+            }
+        }
+
+        void close(HttpURLConnection connection) {
+            connections.remove(connection);
+            connection.disconnect();
+        }
+
+        void stop() {
+            stopped = true;
+            connections.forEach(HttpURLConnection::disconnect);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.kraken.loader;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * URL handler for the kraken: scheme which serves resources held in memory by a ByteArrayClassLoader. Each loader
+ * has its own handler so URLs always resolve against the JAR they were created from.
+ */
+public class ResourceURLStreamHandler extends URLStreamHandler {
+    public static final String PROTOCOL = "kraken";
+
+    private final Map<String, ByteBuffer> resources;
+
+    public ResourceURLStreamHandler(Map<String, ByteBuffer> resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * Creates a URL for a resource which will be opened through this handler.
+     * @param name String the resource name i.e. com/krakenplugins/example/icon.png
+     * @return URL for the resource
+     * @throws MalformedURLException When the resource name cannot be represented as a URL.
+     */
+    public URL createURL(String name) throws MalformedURLException {
+        return new URL(PROTOCOL, "", -1, "/" + name, this);
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) {
+        return new URLConnection(url) {
+            private ByteBuffer resource;
+
+            @Override
+            public void connect() throws FileNotFoundException {
+                if (resource == null) {
+                    ByteBuffer buffer = resources.get(url.getPath().substring(1));
+                    if (buffer == null) {
+                        throw new FileNotFoundException(url.toString());
+                    }
+                    resource = buffer.duplicate();
+                    connected = true;
+                }
+            }
+
+            @Override
+            public InputStream getInputStream() throws FileNotFoundException {
+                connect();
+                return new ByteBufferInputStream(resource.duplicate());
+            }
+
+            @Override
+            public long getContentLengthLong() {
+                ByteBuffer buffer = resources.get(url.getPath().substring(1));
+                return buffer == null ? -1 : buffer.remaining();
+            }
+        };
+    }
+}
@@ -0,0 +1,170 @@
+package com.kraken.loader;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Class loader for classes which are bundled, byte for byte, into more than one plugin JAR (i.e. shared Kraken
+ * utility packages). Each shared class is defined once here instead of once per plugin loader, and the plugin loaders
+ * fall back to this loader for any class they no longer hold themselves.
+ *
+ * A shared class is a single class for every plugin, so its static fields are too. Classes which declare a static
+ * field that is not final are never shared, and neither is any class which refers to them. Static final fields are
+ * assumed to hold constants.
+ */
+@Slf4j
+public class SharedClassLoader extends ByteArrayClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    @Getter
+    private int sharedClassCount;
+
+    // Bytes of bytecode which are no longer duplicated across plugin loaders.
+    @Getter
+    private long bytesSaved;
+
+    private SharedClassLoader(SharedClassStore classStore) {
+        super(classStore, Collections.emptyMap());
+    }
+
+    /**
+     * Finds classes which have the same name and content hash in at least two plugin loaders and moves them into a
+     * new shared loader which every plugin loader then delegates to. A class is only shared when it has no static
+     * non-final fields and every class from the package which it refers to is also shared, otherwise the shared copy
+     * would be unable to resolve it. This must run before any class is defined by the plugin loaders.
+     * @param loaders List of plugin class loaders
+     * @param packageName String internal name of the package plugin classes are loaded from i.e. com/krakenplugins
+     * @param excludedSuperclassName String binary name of a superclass whose subclasses are never shared i.e. the
+     *                               plugin base class, since each plugin loader must define its own plugin class.
+     * @return SharedClassLoader
+     */
+    public static SharedClassLoader deduplicate(List<ByteArrayClassLoader> loaders, String packageName, String excludedSuperclassName) {
+        SharedClassStore sharedStore = new SharedClassStore();
+        SharedClassLoader shared = new SharedClassLoader(sharedStore);
+
+        // Class name -> content hash, or null when the same name has different content in different JARs
+        Map<String, String> hashes = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (ByteArrayClassLoader loader : loaders) {
+            ClassStore store = loader.getClassStore();
+            for (String className : store.getClassNames()) {
+                String hash = store.getClassHash(className);
+                if (hashes.containsKey(className) && !Objects.equals(hashes.get(className), hash)) {
+                    hash = null;
+                }
+                hashes.put(className, hash);
+                counts.merge(className, 1, Integer::sum);
+            }
+        }
+
+        Set<String> candidates = new HashSet<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            String className = entry.getKey();
+            if (entry.getValue() > 1 && hashes.get(className) != null && isStateless(loaders, className)) {
+                candidates.add(className);
+            }
+        }
+
+        // Drop candidates which refer to a package class that is not shared until no more can be dropped.
+        Map<String, Set<String>> references = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String className : new HashSet<>(candidates)) {
+                Set<String> referenced = references.computeIfAbsent(className, name -> readReferences(loaders, name, packageName));
+                boolean excluded = excludedSuperclassName.equals(superclassName(loaders, className));
+                if (excluded || referenced == null || !candidates.containsAll(withoutSelf(referenced, className, hashes))) {
+                    candidates.remove(className);
+                    changed = true;
+                }
+            }
+        }
+
+        for (String className : candidates) {
+            boolean moved = false;
+            for (ByteArrayClassLoader loader : loaders) {
+                ClassStore store = loader.getClassStore();
+                if (!store.getClassNames().contains(className)) {
+                    continue;
+                }
+
+                if (!moved) {
+                    moved = sharedStore.moveFrom(className, store);
+                } else {
+                    ByteBuffer duplicate = store.take(className);
+                    if (duplicate != null) {
+                        shared.bytesSaved += duplicate.remaining();
+                    }
+                }
+            }
+            if (moved) {
+                shared.sharedClassCount++;
+            }
+        }
+
+        for (ByteArrayClassLoader loader : loaders) {
+            loader.setSharedLoader(shared);
+        }
+        return shared;
+    }
+
+    /**
+     * Removes references to the class itself and to classes which are not in any plugin JAR (and will therefore be
+     * resolved through the parent class loader).
+     */
+    private static Set<String> withoutSelf(Set<String> referenced, String className, Map<String, String> hashes) {
+        Set<String> filtered = new HashSet<>(referenced);
+        filtered.remove(className);
+        filtered.removeIf(name -> !hashes.containsKey(name));
+        return filtered;
+    }
+
+    private static Set<String> readReferences(List<ByteArrayClassLoader> loaders, String className, String packageName) {
+        for (ByteArrayClassLoader loader : loaders) {
+            ByteBuffer bytes = loader.getClassStore().peek(className);
+            if (bytes != null) {
+                return ClassFileReader.readReferencedClassNames(bytes, packageName);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns false when the class declares static state or cannot be read, so it stays private to each plugin.
+     */
+    private static boolean isStateless(List<ByteArrayClassLoader> loaders, String className) {
+        for (ByteArrayClassLoader loader : loaders) {
+            ByteBuffer bytes = loader.getClassStore().peek(className);
+            if (bytes != null) {
+                Boolean mutable = ClassFileReader.hasMutableStaticFields(bytes);
+                if (mutable == null || mutable) {
+                    log.debug("Not sharing class: {} since it has static state or is malformed.", className);
+                    return false;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String superclassName(List<ByteArrayClassLoader> loaders, String className) {
+        for (ByteArrayClassLoader loader : loaders) {
+            String superclassName = loader.getClassStore().getSuperclassName(className);
+            if (superclassName != null) {
+                return superclassName;
+            }
+        }
+        return null;
+    }
+}
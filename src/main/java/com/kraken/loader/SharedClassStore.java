@@ -0,0 +1,78 @@
+package com.kraken.loader;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ClassStore holding classes which have been moved out of one or more plugin class stores because they are
+ * identical across plugin JARs. The bytecode buffers are the ones taken from the original store so nothing is copied.
+ */
+public class SharedClassStore implements ClassStore {
+    private final Set<String> classNames = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> superclassNames = new ConcurrentHashMap<>();
+    private final Map<String, String> classHashes = new ConcurrentHashMap<>();
+    private final Map<String, ByteBuffer> classData = new ConcurrentHashMap<>();
+
+    /**
+     * Moves a class out of another store into this one.
+     * @param className String binary name of the class
+     * @param source ClassStore the store to take the class from
+     * @return boolean true if the class was moved, false if it had already been taken from the source store.
+     */
+    boolean moveFrom(String className, ClassStore source) {
+        String superclassName = source.getSuperclassName(className);
+        String classHash = source.getClassHash(className);
+        ByteBuffer bytes = source.take(className);
+        if (bytes == null) {
+            return false;
+        }
+
+        classNames.add(className);
+        if (superclassName != null) {
+            superclassNames.put(className, superclassName);
+        }
+        classHashes.put(className, classHash);
+        classData.put(className, bytes);
+        return true;
+    }
+
+    @Override
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classNames);
+    }
+
+    @Override
+    public String getSuperclassName(String className) {
+        return superclassNames.get(className);
+    }
+
+    @Override
+    public String getClassHash(String className) {
+        return classHashes.get(className);
+    }
+
+    @Override
+    public ByteBuffer peek(String className) {
+        ByteBuffer bytes = classData.get(className);
+        return bytes == null ? null : bytes.asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer load(String className) {
+        ByteBuffer bytes = classData.get(className);
+        return bytes == null ? null : bytes.duplicate();
+    }
+
+    @Override
+    public void release(String className) {
+        classData.remove(className);
+    }
+
+    @Override
+    public ByteBuffer take(String className) {
+        return classData.remove(className);
+    }
+}
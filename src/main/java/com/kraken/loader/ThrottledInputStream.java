@@ -0,0 +1,44 @@
+package com.kraken.loader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream which accounts every byte read against the global BandwidthGovernor.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+    private final BandwidthGovernor governor;
+
+    public ThrottledInputStream(InputStream in, BandwidthGovernor governor) {
+        super(in);
+        this.governor = governor;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            governor.consume(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            governor.consume(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            governor.consume((int) Math.min(skipped, Integer.MAX_VALUE));
+        }
+        return skipped;
+    }
+}
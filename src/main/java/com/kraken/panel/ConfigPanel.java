@@ -5,7 +5,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
-import com.kraken.HardwareUtils;
+import com.kraken.HardwareIdService;
 import com.kraken.KrakenLoaderPlugin;
 import com.kraken.KrakenPluginManager;
 import com.kraken.api.model.ValidateLicenseRequest;
@@ -45,6 +45,7 @@ import java.awt.image.BufferedImage;
 import java.lang.reflect.ParameterizedType;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
 
 @Slf4j
 public class ConfigPanel extends PluginPanel {
@@ -74,6 +75,7 @@ public class ConfigPanel extends PluginPanel {
 	private final ConfigManager configManager;
 	private final PluginManager pluginManager;
 	private final ColorPickerManager colorPickerManager;
+	private final ScheduledExecutorService executor;
 	private final TitleCaseListCellRenderer listCellRenderer = new TitleCaseListCellRenderer();
 
 	private final FixedWidthPanel mainPanel;
@@ -88,7 +90,8 @@ public class ConfigPanel extends PluginPanel {
 		KrakenPluginManager krakenPluginManager,
 		ConfigManager configManager,
 		PluginManager pluginManager,
-		ColorPickerManager colorPickerManager
+		ColorPickerManager colorPickerManager,
+		ScheduledExecutorService executor
 	) {
 		super(false);
 
@@ -97,6 +100,7 @@ public class ConfigPanel extends PluginPanel {
 		this.pluginManager = pluginManager;
 		this.colorPickerManager = colorPickerManager;
 		this.krakenPluginManager = krakenPluginManager;
+		this.executor = executor;
 
 		setLayout(new BorderLayout());
 		setBackground(ColorScheme.DARK_GRAY_COLOR);
@@ -421,35 +425,45 @@ public class ConfigPanel extends PluginPanel {
 			public void focusLost(FocusEvent e) {
 
 				if(cid.getItem().keyName().equals("licenseKey")) {
-					log.info("License key field changed. Re-validating license: {}", textField.getText());
-					ValidateLicenseRequest req = new ValidateLicenseRequest(krakenPluginManager.getUser().getCredentials(), textField.getText(), HardwareUtils.getHardwareId());
+					String licenseKey = textField.getText();
+					log.info("License key field changed. Re-validating license: {}", licenseKey);
 					String name = pluginConfig.getPlugin().getName();
-					Optional<Plugin> pluginOptional = pluginManager.getPlugins().stream().filter(p -> p.getName().equals(name)).findFirst();
-					Plugin plugin;
-
-					try {
-						// Check license, update UI, and start/stop plugins depending on license status.
-						if (pluginOptional.isPresent()) {
-							plugin = pluginOptional.get();
-							if (krakenPluginManager.hasValidLicense(req)) {
-								log.info("Plugin: {} has a valid license.", name);
-								krakenPluginManager.getVerifiedPlugins().put(name, true);
-								pluginManager.startPlugin(plugin);
+					// Validate on a background thread once the hardware id is known, only the plugin and panel updates run on the EDT.
+					HardwareIdService.getHardwareIdAsync().thenApplyAsync(hardwareId -> {
+						ValidateLicenseRequest req = new ValidateLicenseRequest(krakenPluginManager.getUser().getCredentials(), licenseKey, hardwareId);
+						return krakenPluginManager.hasValidLicense(req);
+					}, executor).thenAcceptAsync(valid -> {
+						Optional<Plugin> pluginOptional = pluginManager.getPlugins().stream().filter(p -> p.getName().equals(name)).findFirst();
+						Plugin plugin;
+
+						try {
+							// Update UI, and start/stop plugins depending on license status.
+							if (pluginOptional.isPresent()) {
+								plugin = pluginOptional.get();
+								if (valid) {
+									log.info("Plugin: {} has a valid license.", name);
+									krakenPluginManager.getVerifiedPlugins().put(name, true);
+									pluginManager.startPlugin(plugin);
+								} else {
+									log.info("Plugin: {} has an invalid license.", name);
+									krakenPluginManager.getVerifiedPlugins().put(name, false);
+									pluginManager.stopPlugin(plugin);
+								}
+
+								pluginList.rebuildPluginList();
+								refreshPluginState();
 							} else {
-								log.info("Plugin: {} has an invalid license.", name);
-								krakenPluginManager.getVerifiedPlugins().put(name, false);
-								pluginManager.stopPlugin(plugin);
+								log.error("Could not find plugin in list of plugins which matches name: {}. Failed to enable/disable plugin.", name);
 							}
-
-							pluginList.rebuildPluginList();
-							refreshPluginState();
-						} else {
-							log.error("Could not find plugin in list of plugins which matches name: {}. Failed to enable/disable plugin.", name);
+						} catch (PluginInstantiationException err) {
+							log.error("Failed to instantiate plugin: {}. Error = {}", name, err.getMessage());
+							err.printStackTrace();
 						}
-					} catch (PluginInstantiationException err) {
-						log.error("Failed to instantiate plugin: {}. Error = {}", name, err.getMessage());
-						err.printStackTrace();
-					}
+					}, SwingUtilities::invokeLater).exceptionally(throwable -> {
+						log.error("Exception thrown while re-validating the license for plugin: {}. Error = {}", name, throwable.getMessage());
+						throwable.printStackTrace();
+						return null;
+					});
 				}
 
 				changeConfiguration(textField, cd, cid);
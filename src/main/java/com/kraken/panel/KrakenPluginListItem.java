@@ -106,6 +106,14 @@ public class KrakenPluginListItem extends JPanel implements SearchablePlugin {
 
 			configMenuItem = new JMenuItem("Configure");
 			configMenuItem.addActionListener(e -> openGroupConfigPanel());
+		} else if (pluginConfig.getSnapshot() != null && pluginConfig.getSnapshot().isConfigurable()) {
+			// The plugin has not been loaded yet, keep space for its config button so the row doesn't shift once it has.
+			JButton configButton = new JButton(CONFIG_ICON);
+			SwingUtil.removeButtonDecorations(configButton);
+			configButton.setPreferredSize(new Dimension(25, 0));
+			configButton.setEnabled(false);
+			configButton.setToolTipText("Plugin configuration is available once the plugin has loaded");
+			buttonPanel.add(configButton);
 		}
 
 		add(nameLabel, BorderLayout.CENTER);
@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -61,6 +62,8 @@ public class KrakenPluginListPanel extends PluginPanel {
     private final Provider<ConfigPanel> configPanelProvider;
 	private final PluginManager pluginManager;
 	private final KrakenPluginManager krakenPluginManager;
+	private final PluginSnapshotStore snapshotStore;
+	private List<PluginSnapshot> snapshots;
 
     @Getter
 	private final MultiplexingPluginPanel muxer;
@@ -76,6 +79,7 @@ public class KrakenPluginListPanel extends PluginPanel {
 								 PluginManager pluginManager,
 								 KrakenPluginManager krakenPluginManager,
 								 ConfigManager configManager,
+								 PluginSnapshotStore snapshotStore,
 								 Provider<ConfigPanel> configPanelProvider) {
         super(false);
 
@@ -83,6 +87,7 @@ public class KrakenPluginListPanel extends PluginPanel {
         this.pluginManager = pluginManager;
         this.configPanelProvider = configPanelProvider;
 		this.krakenPluginManager = krakenPluginManager;
+		this.snapshotStore = snapshotStore;
 
         setLayout(new BorderLayout());
         setBackground(ColorScheme.DARK_GRAY_COLOR);
@@ -159,16 +164,26 @@ public class KrakenPluginListPanel extends PluginPanel {
 
 
 
+	/**
+	 * Renders the Kraken plugin list from the snapshot persisted by the last session. Plugins which have not been
+	 * loaded yet are shown as placeholders until rebuildPluginList() reconciles the list with the live plugins.
+	 */
+	public void renderSnapshot() {
+		buildPluginList(true);
+	}
+
 	/**
 	 * Rebuilds the Kraken plugin list when changes have been made to a plugin via the KrakenPluginManager.
 	 */
     public void rebuildPluginList() {
+		buildPluginList(false);
+	}
+
+	private void buildPluginList(boolean includeSnapshot) {
 		final List<String> pinnedPlugins = getPinnedPluginNames();
 
 		// populate Kraken plugin list with all non-hidden Kraken-only plugins
-		pluginList = Stream.concat(
-			fakePlugins.stream(),
-			pluginManager.getPlugins().stream()
+		List<PluginMetadata> livePlugins = pluginManager.getPlugins().stream()
 				.filter(plugin -> krakenPluginManager.getPluginMap().get(plugin.getName()) != null)
 				.map(plugin ->
 				{
@@ -214,7 +229,15 @@ public class KrakenPluginListPanel extends PluginPanel {
 					log.info("Plugin Metadata: {}", meta);
 					return meta;
 				})
-		)
+			.collect(Collectors.toList());
+
+		List<PluginMetadata> placeholders = includeSnapshot ? getPlaceholders(livePlugins) : Collections.emptyList();
+		if (krakenPluginManager.isPluginsStarted()) {
+			saveSnapshot(livePlugins);
+		}
+
+		pluginList = Stream.of(fakePlugins.stream(), livePlugins.stream(), placeholders.stream())
+			.flatMap(s -> s)
 			.map(desc ->
 			{
 				KrakenPluginListItem listItem;
@@ -236,6 +259,36 @@ public class KrakenPluginListPanel extends PluginPanel {
 		refresh();
 	}
 
+	/**
+	 * Creates placeholder metadata for the snapshotted plugins which are not loaded yet.
+	 * @param livePlugins List of metadata for the plugins which are already loaded
+	 * @return List of placeholder metadata
+	 */
+	private List<PluginMetadata> getPlaceholders(List<PluginMetadata> livePlugins) {
+		if (snapshots == null) {
+			snapshots = snapshotStore.load();
+		}
+
+		Set<String> loaded = livePlugins.stream().map(PluginMetadata::getName).collect(Collectors.toSet());
+		return snapshots.stream()
+			.filter(snapshot -> !loaded.contains(snapshot.getName()))
+			.map(PluginSnapshot::toMetadata)
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * Persists a snapshot of the live plugins so the next session can render the list before they are loaded. The
+	 * Kraken loader plugin is always present and is left out of the snapshot.
+	 * @param livePlugins List of metadata for the plugins which are loaded
+	 */
+	private void saveSnapshot(List<PluginMetadata> livePlugins) {
+		snapshots = livePlugins.stream()
+			.filter(meta -> !meta.getName().equals("Kraken Plugins"))
+			.map(PluginSnapshot::from)
+			.collect(Collectors.toList());
+		snapshotStore.save(snapshots);
+	}
+
 	/**
 	 * Refreshes the list of Kraken plugins.
 	 */
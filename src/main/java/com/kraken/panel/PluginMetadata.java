@@ -28,7 +28,15 @@ public class PluginMetadata {
 	@Nullable
 	List<String> conflicts;
 
+	// Set when this metadata was restored from the persisted snapshot and the plugin itself has not been loaded yet
+	@Nullable
+	PluginSnapshot snapshot;
+
 	PluginMetadata(String name, String description, String[] tags, Plugin plugin, boolean verified, Config config, ConfigDescriptor configDescriptor) {
-		this(name, description, tags, plugin, verified, config, configDescriptor, null);
+		this(name, description, tags, plugin, verified, config, configDescriptor, null, null);
+	}
+
+	PluginMetadata(String name, String description, String[] tags, Plugin plugin, Boolean verified, Config config, ConfigDescriptor configDescriptor, List<String> conflicts) {
+		this(name, description, tags, plugin, verified, config, configDescriptor, conflicts, null);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.kraken.panel;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import net.runelite.client.config.ConfigDescriptor;
+import net.runelite.client.config.ConfigItemDescriptor;
+import net.runelite.client.config.ConfigSectionDescriptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A persisted copy of the parts of a Kraken plugin's metadata the plugin list needs to render. Snapshots are written
+ * whenever the plugin list is rebuilt from the live plugins and are read back on the next start up so the panel can
+ * be shown before the plugin JARs have been downloaded and loaded.
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PluginSnapshot {
+	private String name;
+	private String description;
+	private List<String> tags = new ArrayList<>();
+	private boolean verified;
+	private List<String> conflicts = new ArrayList<>();
+
+	// Shape of the plugin's configuration, null when the plugin has nothing to configure beyond the on/off toggle.
+	private String configGroup;
+	private List<String> configSections = new ArrayList<>();
+	private List<ConfigItemSnapshot> configItems = new ArrayList<>();
+
+	@Data
+	@NoArgsConstructor
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class ConfigItemSnapshot {
+		private String keyName;
+		private String name;
+		private String type;
+	}
+
+	/**
+	 * Creates a snapshot from the metadata of a loaded plugin.
+	 * @param metadata PluginMetadata metadata built from the live plugin
+	 * @return PluginSnapshot
+	 */
+	public static PluginSnapshot from(PluginMetadata metadata) {
+		PluginSnapshot snapshot = new PluginSnapshot();
+		snapshot.setName(metadata.getName());
+		snapshot.setDescription(metadata.getDescription());
+		if (metadata.getTags() != null) {
+			snapshot.setTags(new ArrayList<>(Arrays.asList(metadata.getTags())));
+		}
+		snapshot.setVerified(Boolean.TRUE.equals(metadata.getVerified()));
+		if (metadata.getConflicts() != null) {
+			snapshot.setConflicts(new ArrayList<>(metadata.getConflicts()));
+		}
+
+		ConfigDescriptor cd = metadata.getConfigDescriptor();
+		if (cd != null) {
+			snapshot.setConfigGroup(cd.getGroup().value());
+			for (ConfigSectionDescriptor csd : cd.getSections()) {
+				snapshot.getConfigSections().add(csd.getKey());
+			}
+			for (ConfigItemDescriptor cid : cd.getItems()) {
+				ConfigItemSnapshot item = new ConfigItemSnapshot();
+				item.setKeyName(cid.getItem().keyName());
+				item.setName(cid.getItem().name());
+				item.setType(cid.getType() == null ? null : cid.getType().getTypeName());
+				snapshot.getConfigItems().add(item);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return boolean True if the plugin had configuration beyond the on/off toggle when the snapshot was taken.
+	 */
+	@JsonIgnore
+	public boolean isConfigurable() {
+		return configGroup != null && !configItems.isEmpty();
+	}
+
+	/**
+	 * Creates placeholder metadata for the plugin list from this snapshot. The placeholder has no plugin, config or
+	 * config descriptor attached so it cannot be toggled or configured until the live plugin replaces it.
+	 * @return PluginMetadata
+	 */
+	public PluginMetadata toMetadata() {
+		return new PluginMetadata(
+			name,
+			description,
+			tags.toArray(new String[0]),
+			null,
+			verified,
+			null,
+			null,
+			conflicts,
+			this);
+	}
+}
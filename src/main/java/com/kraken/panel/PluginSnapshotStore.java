@@ -0,0 +1,74 @@
+package com.kraken.panel;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Singleton;
+import com.kraken.loader.ProcessLock;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * Reads and writes the plugin snapshots the Kraken plugin list renders from at start up. Snapshots are stored in
+ * RUNELITE_DIR/kraken/plugins.json.
+ */
+@Slf4j
+@Singleton
+public class PluginSnapshotStore {
+	private static final String KRAKEN_DIR = "kraken";
+	private static final String SNAPSHOT_FILE = "plugins.json";
+	private static final String LOCK_FILE = "plugins.lock";
+
+	private final ObjectMapper mapper;
+	private final Path krakenDir;
+
+	public PluginSnapshotStore() {
+		this.mapper = new ObjectMapper();
+		this.krakenDir = RUNELITE_DIR.toPath().resolve(KRAKEN_DIR);
+	}
+
+	/**
+	 * Loads the snapshots written by the last session.
+	 * @return List of plugin snapshots. Empty if no snapshot exists or it cannot be read.
+	 */
+	public List<PluginSnapshot> load() {
+		File snapshotFile = krakenDir.resolve(SNAPSHOT_FILE).toFile();
+		if (snapshotFile.exists() && snapshotFile.length() > 0) {
+			try {
+				return mapper.readValue(snapshotFile, new TypeReference<List<PluginSnapshot>>() {});
+			} catch (IOException e) {
+				log.error("IOException thrown while attempting to load the plugin snapshot. Error = {}", e.getMessage());
+			}
+		}
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Replaces the persisted snapshots. The file is written to a temporary file first and moved into place so a
+	 * crash mid write never leaves a truncated snapshot behind. Every client process on the machine saves its
+	 * snapshot, writes are serialized through a ProcessLock and the snapshot is only replaced when its contents changed.
+	 * @param snapshots List of plugin snapshots to persist
+	 */
+	public void save(List<PluginSnapshot> snapshots) {
+		try (ProcessLock lock = ProcessLock.tryAcquire(krakenDir.resolve(LOCK_FILE))) {
+			if (snapshots.equals(load())) {
+				return;
+			}
+
+			Files.createDirectories(krakenDir);
+			Path tmp = Files.createTempFile(krakenDir, SNAPSHOT_FILE, ".tmp");
+			mapper.writeValue(tmp.toFile(), snapshots);
+			Files.move(tmp, krakenDir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.error("IOException thrown while attempting to write the plugin snapshot. Error = {}", e.getMessage());
+		}
+	}
+}
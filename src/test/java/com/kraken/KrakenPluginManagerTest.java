@@ -0,0 +1,297 @@
+package com.kraken;
+
+import com.google.inject.Guice;
+import com.kraken.api.KrakenClient;
+import com.kraken.api.KrakenCredentialManager;
+import com.kraken.api.LicenseCache;
+import com.kraken.api.LicenseLeaseStore;
+import com.kraken.api.model.CognitoCredentials;
+import com.kraken.api.model.CognitoUser;
+import com.kraken.api.model.LicenseLease;
+import com.kraken.api.model.PreSignedURL;
+import com.kraken.loader.BandwidthGovernor;
+import com.kraken.loader.ByteArrayClassLoader;
+import com.kraken.loader.JarCache;
+import com.kraken.loader.JarResourceLoader;
+import com.kraken.loader.TestClasses;
+import net.runelite.client.RuneLite;
+import net.runelite.client.config.Config;
+import net.runelite.client.config.ConfigDescriptor;
+import net.runelite.client.config.ConfigGroup;
+import net.runelite.client.config.ConfigManager;
+import net.runelite.client.plugins.Plugin;
+import net.runelite.client.plugins.PluginManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Reloads a plugin in place and checks the class loader of the old plugin version is garbage collected. RuneLite's
+ * plugin and config managers are mocked and every license is valid according to the license cache.
+ */
+public class KrakenPluginManagerTest {
+    private static final String PACKAGE = "com.krakenplugins.reload";
+    private static final String PLUGIN_NAME = "Reload Test";
+    private static final String JAR_URL = "https://kraken-plugins.s3.amazonaws.com/reload.jar";
+    private static final String CACHE_KEY = "kraken-plugins.s3.amazonaws.com/reload.jar";
+
+    private final Queue<ByteArrayClassLoader> downloads = new ConcurrentLinkedQueue<>();
+    // Plugin manager calls which were made off the Swing event dispatch thread.
+    private final Queue<String> offEventDispatchThread = new ConcurrentLinkedQueue<>();
+    private volatile String licenseKey = "license-key";
+    private volatile boolean configured = true;
+    private PluginManager pluginManager;
+    private LicenseCache licenseCache;
+    private KrakenClient krakenClient;
+    private LicenseLeaseStore leaseStore;
+    private KrakenCredentialManager credentialManager;
+    private KrakenPluginManager manager;
+
+    @BeforeClass
+    public static void isolateRuneLiteDir() throws IOException {
+        // The hardware id is persisted in the RuneLite directory, keep it away from the real one.
+        System.setProperty("user.home", Files.createTempDirectory("kraken-home").toString());
+        assumeTrue("RuneLite directory was initialized before the test", RuneLite.RUNELITE_DIR.getPath().startsWith(System.getProperty("user.home")));
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // Stub only mocks don't record invocations, so they never hold on to the plugins passed to them.
+        pluginManager = mock(PluginManager.class, withSettings().stubOnly());
+        when(pluginManager.loadPlugins(anyList(), any())).thenAnswer(invocation -> {
+            checkEventDispatchThread("loadPlugins");
+            return instantiate(invocation.getArgument(0));
+        });
+        // Stubs with an answer remember their last invocation, so only methods which are called again for the new
+        // version of a plugin are checked here or the old version could not be garbage collected.
+        when(pluginManager.startPlugin(any())).thenAnswer(invocation -> checkEventDispatchThread("startPlugin"));
+        doAnswer(invocation -> checkEventDispatchThread("setPluginEnabled")).when(pluginManager).setPluginEnabled(any(), anyBoolean());
+
+        Config config = mock(Config.class, withSettings().stubOnly());
+        when(pluginManager.getPluginConfigProxy(any())).thenAnswer(invocation -> configured ? config : null);
+
+        ConfigGroup group = mock(ConfigGroup.class, withSettings().stubOnly());
+        when(group.value()).thenReturn("reload");
+        ConfigDescriptor descriptor = mock(ConfigDescriptor.class, withSettings().stubOnly());
+        when(descriptor.getGroup()).thenReturn(group);
+        ConfigManager configManager = mock(ConfigManager.class, withSettings().stubOnly());
+        when(configManager.getConfigDescriptor(config)).thenReturn(descriptor);
+        when(configManager.getConfiguration("reload", "licenseKey")).thenAnswer(invocation -> licenseKey);
+
+        licenseCache = mock(LicenseCache.class, withSettings().stubOnly());
+        when(licenseCache.getFresh(anyString(), anyString(), anyString())).thenReturn(true);
+
+        krakenClient = mock(KrakenClient.class, withSettings().stubOnly());
+        leaseStore = mock(LicenseLeaseStore.class, withSettings().stubOnly());
+        credentialManager = mock(KrakenCredentialManager.class, withSettings().stubOnly());
+
+        JarResourceLoader jarResourceLoader = mock(JarResourceLoader.class, withSettings().stubOnly());
+        when(jarResourceLoader.loadJarFromSignedUrl(anyString(), any())).thenAnswer(invocation -> downloads.poll());
+        when(jarResourceLoader.loadJarsFromSignedUrls(anyString(), anyList(), anyInt(), anyString())).thenCallRealMethod();
+
+        manager = Guice.createInjector(binder -> {
+            binder.bind(PluginManager.class).toInstance(pluginManager);
+            binder.bind(ConfigManager.class).toInstance(configManager);
+            binder.bind(LicenseCache.class).toInstance(licenseCache);
+            binder.bind(LicenseLeaseStore.class).toInstance(leaseStore);
+            binder.bind(KrakenCredentialManager.class).toInstance(credentialManager);
+            binder.bind(KrakenClient.class).toInstance(krakenClient);
+            binder.bind(BandwidthGovernor.class).toInstance(mock(BandwidthGovernor.class, withSettings().stubOnly()));
+            binder.bind(JarResourceLoader.class).toInstance(jarResourceLoader);
+        }).getInstance(KrakenPluginManager.class);
+
+        CognitoUser user = new CognitoUser();
+        user.setDiscordId("discord-id");
+        manager.setUser(user);
+    }
+
+    @After
+    public void pluginsAreOnlyTouchedOnTheEventDispatchThread() {
+        assertTrue("Called off the event dispatch thread: " + offEventDispatchThread, offEventDispatchThread.isEmpty());
+    }
+
+    @Test(timeout = 60_000)
+    public void reloadReplacesPluginAndReclaimsOldClassLoader() throws Exception {
+        manager.loadPrefetchedPlugins(Collections.singletonList(pluginVersion(1)));
+        manager.startKrakenPlugins();
+        assertEquals(1, version(manager.getPluginMap().get(PLUGIN_NAME)));
+
+        downloads.add(pluginVersion(2));
+        assertEquals(Collections.singletonList(PLUGIN_NAME), manager.reloadPlugins(Collections.singletonList(url())));
+        assertEquals(2, version(manager.getPluginMap().get(PLUGIN_NAME)));
+        assertTrue(manager.getVerifiedPlugins().get(PLUGIN_NAME));
+
+        for (int i = 0; i < 50 && manager.getRetainedLoaderCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertEquals(0, manager.getRetainedLoaderCount());
+    }
+
+    @Test(timeout = 60_000)
+    public void reloadSkipsUnchangedPlugins() throws Exception {
+        manager.loadPrefetchedPlugins(Collections.singletonList(pluginVersion(1)));
+        manager.startKrakenPlugins();
+        Plugin plugin = manager.getPluginMap().get(PLUGIN_NAME);
+
+        downloads.add(pluginVersion(1));
+        assertTrue(manager.reloadPlugins(Collections.singletonList(url())).isEmpty());
+        assertEquals(plugin, manager.getPluginMap().get(PLUGIN_NAME));
+    }
+
+    @Test(timeout = 60_000)
+    public void pluginWithoutLicenseKeyIsListedAsUnverified() throws Exception {
+        licenseKey = null;
+        manager.loadPrefetchedPlugins(Collections.singletonList(pluginVersion(1)));
+        manager.startKrakenPlugins();
+
+        assertEquals(1, version(manager.getPluginMap().get(PLUGIN_NAME)));
+        assertFalse(manager.getVerifiedPlugins().get(PLUGIN_NAME));
+    }
+
+    @Test(timeout = 60_000)
+    public void replacementWithoutConfigIsTrackedAndCanBeReplacedAgain() throws Exception {
+        manager.loadPrefetchedPlugins(Collections.singletonList(pluginVersion(1)));
+        manager.startKrakenPlugins();
+
+        configured = false;
+        downloads.add(pluginVersion(2));
+        assertEquals(Collections.singletonList(PLUGIN_NAME), manager.reloadPlugins(Collections.singletonList(url())));
+        assertEquals(2, version(manager.getPluginMap().get(PLUGIN_NAME)));
+        assertFalse(manager.getVerifiedPlugins().get(PLUGIN_NAME));
+
+        configured = true;
+        downloads.add(pluginVersion(3));
+        assertEquals(Collections.singletonList(PLUGIN_NAME), manager.reloadPlugins(Collections.singletonList(url())));
+        assertEquals(3, version(manager.getPluginMap().get(PLUGIN_NAME)));
+        assertTrue(manager.getVerifiedPlugins().get(PLUGIN_NAME));
+    }
+
+    @Test(timeout = 60_000)
+    public void optimisticallyStartedPluginIsStoppedOnTheEventDispatchThreadWhenRevoked() throws Exception {
+        when(licenseCache.getFresh(anyString(), anyString(), anyString())).thenReturn(null);
+        when(licenseCache.isRecentlyValidated(anyString(), anyString(), anyString())).thenReturn(true);
+        CompletableFuture<Boolean> confirmation = new CompletableFuture<>();
+        when(krakenClient.checkLicensesAsync(any(), anyString(), anyList())).thenReturn(Collections.singletonMap(licenseKey, confirmation));
+        List<String> stopped = new CopyOnWriteArrayList<>();
+        when(pluginManager.stopPlugin(any())).thenAnswer(invocation -> {
+            stopped.add(((Plugin) invocation.getArgument(0)).getName());
+            return checkEventDispatchThread("stopPlugin");
+        });
+
+        manager.loadPrefetchedPlugins(Collections.singletonList(pluginVersion(1)));
+        manager.startKrakenPlugins();
+        assertTrue(manager.getVerifiedPlugins().get(PLUGIN_NAME));
+        assertTrue(stopped.isEmpty());
+
+        // The license API answers on one of its own threads.
+        Thread response = new Thread(() -> confirmation.complete(false));
+        response.start();
+        response.join();
+
+        assertEquals(Collections.singletonList(PLUGIN_NAME), stopped);
+        assertFalse(manager.getVerifiedPlugins().get(PLUGIN_NAME));
+    }
+
+    @Test(timeout = 60_000)
+    public void leasesAreRenewedWithFreshCredentialsAndSkippedWhenAuthFails() throws Exception {
+        // A lease three quarters of the way through its lifetime is due for renewal.
+        LicenseLease lease = new LicenseLease();
+        lease.setIssuedAt(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(3));
+        lease.setExpiresAt(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(30));
+        when(leaseStore.getValidLease(anyString(), anyString())).thenReturn(lease);
+        List<CognitoCredentials> renewedWith = new CopyOnWriteArrayList<>();
+        when(krakenClient.checkLicensesAsync(any(), anyString(), anyList())).thenAnswer(invocation -> {
+            renewedWith.add(invocation.getArgument(0));
+            return Collections.singletonMap(licenseKey, CompletableFuture.completedFuture(true));
+        });
+
+        manager.loadPrefetchedPlugins(Collections.singletonList(pluginVersion(1)));
+        manager.startKrakenPlugins();
+        assertEquals("The lease is renewed once the plugin has started", 1, renewedWith.size());
+
+        manager.renewLicenseLeases();
+        assertEquals("Renewal is skipped when the user cannot be authenticated", 1, renewedWith.size());
+
+        CognitoCredentials credentials = new CognitoCredentials();
+        CognitoUser authUser = new CognitoUser();
+        authUser.setDiscordId("discord-id");
+        authUser.setCredentials(credentials);
+        when(credentialManager.authenticateUser()).thenReturn(authUser);
+        manager.renewLicenseLeases();
+        assertEquals(2, renewedWith.size());
+        assertSame(credentials, renewedWith.get(1));
+        assertTrue(manager.getVerifiedPlugins().get(PLUGIN_NAME));
+    }
+
+    @Test
+    public void everyInjectorSharesTheJarCache() {
+        // KrakenBootstrap prefetches plugins through its own injector into the same cache.
+        assertSame(Guice.createInjector().getInstance(JarCache.class), Guice.createInjector().getInstance(JarCache.class));
+    }
+
+    private static ByteArrayClassLoader pluginVersion(int version) throws IOException {
+        Map<String, byte[]> classes = TestClasses.compile(PACKAGE, Collections.singletonMap("ReloadPlugin",
+                "@net.runelite.client.plugins.PluginDescriptor(name = \"" + PLUGIN_NAME + "\")"
+                        + " public class ReloadPlugin extends net.runelite.client.plugins.Plugin {"
+                        + " public int version() { return " + version + "; } }"));
+        return TestClasses.loader(classes, CACHE_KEY);
+    }
+
+    private static PreSignedURL url() {
+        PreSignedURL url = new PreSignedURL();
+        url.setUrl(JAR_URL);
+        return url;
+    }
+
+    private static int version(Plugin plugin) throws Exception {
+        assertNotNull(plugin);
+        return (int) plugin.getClass().getMethod("version").invoke(plugin);
+    }
+
+    private boolean checkEventDispatchThread(String method) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            offEventDispatchThread.add(method);
+        }
+        return true;
+    }
+
+    private static List<Plugin> instantiate(List<Class<?>> classes) throws Exception {
+        List<Plugin> plugins = new ArrayList<>();
+        for (Class<?> clazz : classes) {
+            plugins.add((Plugin) clazz.getDeclaredConstructor().newInstance());
+        }
+        return plugins;
+    }
+}
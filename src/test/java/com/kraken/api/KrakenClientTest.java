@@ -0,0 +1,227 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Guice;
+import com.kraken.api.model.CognitoCredentials;
+import com.kraken.api.model.ValidateLicenseRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validates licenses against a local stand-in for the Kraken API.
+ */
+public class KrakenClientTest {
+    private static final String BATCH_PATH = "/api/v1/plugin/validate-licenses";
+    private static final String SINGLE_PATH = "/api/v1/plugin/validate-license";
+    private static final String HARDWARE_ID = "hardware-id";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicInteger batchRequests = new AtomicInteger();
+    private final AtomicInteger singleRequests = new AtomicInteger();
+
+    // Status code and body the endpoints respond with. Single validations respond by license key.
+    private volatile int batchStatus;
+    private volatile String batchBody;
+    private final Map<String, Integer> singleStatus = new ConcurrentHashMap<>();
+    private final Map<String, String> singleBody = new ConcurrentHashMap<>();
+
+    private HttpServer server;
+    private KrakenClient client;
+    private CognitoCredentials credentials;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(BATCH_PATH, exchange -> {
+            batchRequests.incrementAndGet();
+            respond(exchange, batchStatus, batchBody);
+        });
+        server.createContext(SINGLE_PATH, exchange -> {
+            singleRequests.incrementAndGet();
+            JsonNode request = mapper.readTree(exchange.getRequestBody());
+            String licenseKey = request.get("licenseKey").asText();
+            respond(exchange, singleStatus.getOrDefault(licenseKey, 200), singleBody.getOrDefault(licenseKey, "{}"));
+        });
+        server.start();
+
+        client = new KrakenClient("http://127.0.0.1:" + server.getAddress().getPort());
+        credentials = new CognitoCredentials();
+        credentials.setIdToken("id-token");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void batchResultsAreUsedWithoutSingleRequests() {
+        batchStatus = 200;
+        batchBody = "{\"results\": {\"valid-key\": true, \"invalid-key\": false}}";
+
+        Map<String, Boolean> results = checkLicenses("valid-key", "invalid-key");
+
+        assertEquals(Boolean.TRUE, results.get("valid-key"));
+        assertEquals(Boolean.FALSE, results.get("invalid-key"));
+        assertEquals(1, batchRequests.get());
+        assertEquals(0, singleRequests.get());
+    }
+
+    @Test
+    public void licensesMissingFromTheBatchAreValidatedOnTheirOwn() {
+        batchStatus = 200;
+        batchBody = "{\"results\": {\"valid-key\": true}}";
+        singleStatus.put("invalid-key", 400);
+        singleBody.put("invalid-key", "{\"valid\": false, \"error\": \"License key is not valid\"}");
+
+        Map<String, Boolean> results = checkLicenses("valid-key", "invalid-key");
+
+        assertEquals(Boolean.TRUE, results.get("valid-key"));
+        assertEquals(Boolean.FALSE, results.get("invalid-key"));
+        assertEquals(1, singleRequests.get());
+    }
+
+    @Test
+    public void fallsBackToSingleRequestsWhenBatchIsNotSupported() {
+        batchStatus = 404;
+        batchBody = "{\"message\": \"Not Found\"}";
+        singleStatus.put("invalid-key", 400);
+        singleBody.put("invalid-key", "{\"valid\": false, \"error\": \"License key is not valid\"}");
+
+        Map<String, Boolean> results = checkLicenses("valid-key", "invalid-key");
+        assertEquals(Boolean.TRUE, results.get("valid-key"));
+        assertEquals(Boolean.FALSE, results.get("invalid-key"));
+
+        // The batch endpoint is not tried again.
+        checkLicenses("valid-key", "invalid-key");
+        assertEquals(1, batchRequests.get());
+        assertEquals(4, singleRequests.get());
+    }
+
+    @Test
+    public void rejectedBatchFallsBackToSingleRequests() {
+        batchStatus = 400;
+        batchBody = "{\"message\": \"Bad Request\"}";
+        singleStatus.put("invalid-key", 400);
+        singleBody.put("invalid-key", "{\"valid\": false, \"error\": \"License key is not valid\"}");
+
+        Map<String, Boolean> results = checkLicenses("valid-key", "invalid-key");
+
+        assertEquals(Boolean.TRUE, results.get("valid-key"));
+        assertEquals(Boolean.FALSE, results.get("invalid-key"));
+        assertEquals(2, singleRequests.get());
+    }
+
+    @Test
+    public void serverErrorIsAnOutage() {
+        batchStatus = 503;
+        batchBody = "{\"message\": \"Service Unavailable\"}";
+
+        Map<String, Boolean> results = checkLicenses("valid-key", "other-key");
+
+        assertNull(results.get("valid-key"));
+        assertNull(results.get("other-key"));
+        assertEquals(0, singleRequests.get());
+    }
+
+    @Test
+    public void rejectionWithoutAResultIsNotARevocation() {
+        // Expired credentials, timeouts and rate limiting say nothing about the license.
+        for (int status : new int[] {401, 403, 408, 429}) {
+            singleStatus.put("license-key", status);
+            singleBody.put("license-key", "{\"message\": \"Rejected\", \"error\": \"Rejected\"}");
+            assertNull("Status " + status, client.checkLicense(new ValidateLicenseRequest(credentials, "license-key", HARDWARE_ID)));
+        }
+
+        // API Gateway rejects the request without a result in the body.
+        singleStatus.put("license-key", 400);
+        singleBody.put("license-key", "{\"message\": \"Bad Request\"}");
+        assertNull(client.checkLicense(new ValidateLicenseRequest(credentials, "license-key", HARDWARE_ID)));
+
+        singleStatus.put("license-key", 502);
+        singleBody.put("license-key", "{\"message\": \"Bad Gateway\"}");
+        assertNull(client.checkLicense(new ValidateLicenseRequest(credentials, "license-key", HARDWARE_ID)));
+
+        singleStatus.put("license-key", 200);
+        singleBody.put("license-key", "not json");
+        assertNull(client.checkLicense(new ValidateLicenseRequest(credentials, "license-key", HARDWARE_ID)));
+    }
+
+    @Test
+    public void explicitResultIsARevocation() {
+        singleStatus.put("license-key", 400);
+        singleBody.put("license-key", "{\"valid\": false}");
+        assertEquals(Boolean.FALSE, client.checkLicense(new ValidateLicenseRequest(credentials, "license-key", HARDWARE_ID)));
+
+        singleStatus.put("license-key", 200);
+        singleBody.put("license-key", "{\"error\": \"License key has expired\"}");
+        assertEquals(Boolean.FALSE, client.checkLicense(new ValidateLicenseRequest(credentials, "license-key", HARDWARE_ID)));
+
+        singleBody.put("license-key", "{}");
+        assertEquals(Boolean.TRUE, client.checkLicense(new ValidateLicenseRequest(credentials, "license-key", HARDWARE_ID)));
+    }
+
+    @Test
+    public void batchRejectedWithExpiredCredentialsIsAnOutage() {
+        batchStatus = 401;
+        batchBody = "{\"message\": \"Unauthorized\"}";
+
+        Map<String, Boolean> results = checkLicenses("valid-key", "other-key");
+
+        assertNull(results.get("valid-key"));
+        assertNull(results.get("other-key"));
+        assertEquals(0, singleRequests.get());
+    }
+
+    @Test
+    public void unreachableApiIsAnOutage() {
+        server.stop(0);
+
+        Map<String, Boolean> results = checkLicenses("valid-key", "other-key");
+
+        assertTrue(results.containsKey("valid-key"));
+        assertNull(results.get("valid-key"));
+        assertNull(results.get("other-key"));
+        assertNull(client.checkLicense(new ValidateLicenseRequest(credentials, "valid-key", HARDWARE_ID)));
+        assertFalse(results.containsValue(Boolean.TRUE));
+    }
+
+    @Test
+    public void everyInjectorSharesTheRequestLimiter() {
+        // KrakenBootstrap's API client is created by its own injector and must count towards the same limit.
+        assertSame(Guice.createInjector().getInstance(RequestLimiter.class), Guice.createInjector().getInstance(RequestLimiter.class));
+    }
+
+    private Map<String, Boolean> checkLicenses(String... licenseKeys) {
+        return client.checkLicenses(credentials, HARDWARE_ID, Arrays.asList(licenseKeys));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the boundaries of the license cache TTLs and the offline grace period with the default durations, and that
+ * entries which were edited or validated in the future are not trusted.
+ */
+public class LicenseCacheTest {
+    private static final String LICENSE_KEY = "license-key";
+    private static final String HARDWARE_ID = "hardware-id";
+    private static final String USER_ID = "discord-id";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MutableClock clock = new MutableClock();
+    private Path cacheFile;
+    private LicenseCache licenseCache;
+
+    @Before
+    public void setUp() {
+        cacheFile = folder.getRoot().toPath().resolve("kraken").resolve("license-cache.json");
+        licenseCache = new LicenseCache(cacheFile, clock);
+    }
+
+    @Test
+    public void validResultIsFreshForAnHour() {
+        licenseCache.recordValid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        clock.advance(TimeUnit.MINUTES.toMillis(60) - 1);
+        assertEquals(Boolean.TRUE, licenseCache.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID));
+
+        clock.advance(1);
+        assertNull(licenseCache.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID));
+    }
+
+    @Test
+    public void invalidResultIsFreshForFiveMinutes() {
+        licenseCache.recordInvalid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        clock.advance(TimeUnit.MINUTES.toMillis(5) - 1);
+        assertEquals(Boolean.FALSE, licenseCache.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID));
+
+        clock.advance(1);
+        assertNull(licenseCache.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID));
+    }
+
+    @Test
+    public void recentlyValidatedForOneDay() {
+        licenseCache.recordValid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        clock.advance(TimeUnit.HOURS.toMillis(24) - 1);
+        assertTrue(licenseCache.isRecentlyValidated(LICENSE_KEY, HARDWARE_ID, USER_ID));
+
+        clock.advance(1);
+        assertFalse(licenseCache.isRecentlyValidated(LICENSE_KEY, HARDWARE_ID, USER_ID));
+    }
+
+    @Test
+    public void gracePeriodLastsSeventyTwoHours() {
+        licenseCache.recordValid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        clock.advance(TimeUnit.HOURS.toMillis(72) - 1);
+        assertTrue(licenseCache.isWithinGracePeriod(LICENSE_KEY, HARDWARE_ID, USER_ID));
+
+        clock.advance(1);
+        assertFalse(licenseCache.isWithinGracePeriod(LICENSE_KEY, HARDWARE_ID, USER_ID));
+    }
+
+    @Test
+    public void invalidResultEndsTheGracePeriod() {
+        licenseCache.recordValid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+        clock.advance(TimeUnit.HOURS.toMillis(2));
+        licenseCache.recordInvalid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        assertFalse(licenseCache.isWithinGracePeriod(LICENSE_KEY, HARDWARE_ID, USER_ID));
+        assertFalse(licenseCache.isRecentlyValidated(LICENSE_KEY, HARDWARE_ID, USER_ID));
+    }
+
+    @Test
+    public void resultsAreBoundToLicenseHardwareAndUser() {
+        licenseCache.recordValid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        assertNull(licenseCache.getFresh(LICENSE_KEY, "other-hardware-id", USER_ID));
+        assertNull(licenseCache.getFresh(LICENSE_KEY, HARDWARE_ID, "other-discord-id"));
+        assertFalse(licenseCache.isWithinGracePeriod("other-license-key", HARDWARE_ID, USER_ID));
+    }
+
+    @Test
+    public void resultsRecordedByOtherProcessesAreKept() throws Exception {
+        LicenseCache otherProcess = new LicenseCache(cacheFile, clock);
+        licenseCache.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID);
+        otherProcess.recordValid("other-license-key", HARDWARE_ID, USER_ID);
+        licenseCache.recordValid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        LicenseCache restarted = new LicenseCache(cacheFile, clock);
+        assertEquals(Boolean.TRUE, restarted.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID));
+        assertEquals(Boolean.TRUE, restarted.getFresh("other-license-key", HARDWARE_ID, USER_ID));
+        assertFalse(new String(Files.readAllBytes(cacheFile)).contains(LICENSE_KEY));
+    }
+
+    @Test
+    public void resultValidatedInTheFutureIsIgnored() {
+        licenseCache.recordValid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        // Small clock adjustments are tolerated.
+        clock.advance(-TimeUnit.MINUTES.toMillis(5));
+        assertEquals(Boolean.TRUE, licenseCache.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID));
+
+        // Turning the clock back any further must not extend the grace period.
+        clock.advance(-1);
+        assertNull(licenseCache.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID));
+        assertFalse(licenseCache.isRecentlyValidated(LICENSE_KEY, HARDWARE_ID, USER_ID));
+        assertFalse(licenseCache.isWithinGracePeriod(LICENSE_KEY, HARDWARE_ID, USER_ID));
+    }
+
+    @Test
+    public void editedResultIsIgnored() throws Exception {
+        licenseCache.recordInvalid(LICENSE_KEY, HARDWARE_ID, USER_ID);
+
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode entries = (ObjectNode) mapper.readTree(cacheFile.toFile());
+        entries.elements().forEachRemaining(entry -> ((ObjectNode) entry).put("valid", true));
+        mapper.writeValue(cacheFile.toFile(), entries);
+
+        LicenseCache restarted = new LicenseCache(cacheFile, clock);
+        assertNull(restarted.getFresh(LICENSE_KEY, HARDWARE_ID, USER_ID));
+        assertFalse(restarted.isWithinGracePeriod(LICENSE_KEY, HARDWARE_ID, USER_ID));
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis = 1_700_000_000_000L;
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
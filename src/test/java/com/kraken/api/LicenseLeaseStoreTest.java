@@ -0,0 +1,163 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kraken.api.model.LicenseLease;
+import com.kraken.loader.JarCache;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Signs leases with a freshly generated EC key pair, the way the Kraken API does, and verifies them with the store.
+ */
+public class LicenseLeaseStoreTest {
+    private static final String LICENSE_KEY = "license-key";
+    private static final String HARDWARE_ID = "hardware-id";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private KeyPair keyPair;
+    private Path leaseFile;
+    private LicenseLeaseStore leaseStore;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        keyPair = generator.generateKeyPair();
+
+        leaseFile = folder.getRoot().toPath().resolve("kraken").resolve("leases.json");
+        // The test key is read from PEM the way the key bundled with the client is.
+        leaseStore = new LicenseLeaseStore(leaseFile, LicenseLeaseStore.parsePublicKey(pem(keyPair.getPublic())));
+    }
+
+    @Test
+    public void acceptsValidLease() throws Exception {
+        leaseStore.store(LICENSE_KEY, HARDWARE_ID, sign(lease(HARDWARE_ID, TimeUnit.DAYS.toMillis(7)), keyPair.getPrivate()));
+
+        LicenseLease lease = leaseStore.getValidLease(LICENSE_KEY, HARDWARE_ID);
+        assertNotNull(lease);
+        assertEquals(HARDWARE_ID, lease.getHardwareId());
+
+        // Persisted, a new store verifies the lease from disk.
+        assertNotNull(new LicenseLeaseStore(leaseFile, keyPair.getPublic()).getValidLease(LICENSE_KEY, HARDWARE_ID));
+    }
+
+    @Test
+    public void readsEcAndRsaPublicKeysFromPem() throws Exception {
+        assertEquals(keyPair.getPublic(), LicenseLeaseStore.parsePublicKey(pem(keyPair.getPublic())));
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        PublicKey rsaKey = generator.generateKeyPair().getPublic();
+        assertEquals(rsaKey, LicenseLeaseStore.parsePublicKey(pem(rsaKey)));
+
+        assertNull(LicenseLeaseStore.parsePublicKey("-----BEGIN PUBLIC KEY-----\nnot a key!\n-----END PUBLIC KEY-----\n"));
+        assertNull(LicenseLeaseStore.parsePublicKey("-----BEGIN PUBLIC KEY-----\nAAAA\n-----END PUBLIC KEY-----\n"));
+    }
+
+    @Test
+    public void rejectsExpiredLease() throws Exception {
+        LicenseLease lease = lease(HARDWARE_ID, TimeUnit.DAYS.toMillis(7));
+        lease.setIssuedAt(lease.getIssuedAt() - TimeUnit.DAYS.toMillis(8));
+        lease.setExpiresAt(lease.getExpiresAt() - TimeUnit.DAYS.toMillis(8));
+        leaseStore.store(LICENSE_KEY, HARDWARE_ID, sign(lease, keyPair.getPrivate()));
+
+        assertNull(leaseStore.getValidLease(LICENSE_KEY, HARDWARE_ID));
+    }
+
+    @Test
+    public void rejectsTamperedLease() throws Exception {
+        String token = sign(lease(HARDWARE_ID, TimeUnit.DAYS.toMillis(7)), keyPair.getPrivate());
+        LicenseLease extended = lease(HARDWARE_ID, TimeUnit.DAYS.toMillis(365));
+        String tampered = encode(mapper.writeValueAsBytes(extended)) + token.substring(token.indexOf('.'));
+        leaseStore.store(LICENSE_KEY, HARDWARE_ID, tampered);
+
+        assertNull(leaseStore.getValidLease(LICENSE_KEY, HARDWARE_ID));
+    }
+
+    @Test
+    public void rejectsLeaseSignedWithAnotherKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        PrivateKey otherKey = generator.generateKeyPair().getPrivate();
+        leaseStore.store(LICENSE_KEY, HARDWARE_ID, sign(lease(HARDWARE_ID, TimeUnit.DAYS.toMillis(7)), otherKey));
+
+        assertNull(leaseStore.getValidLease(LICENSE_KEY, HARDWARE_ID));
+    }
+
+    @Test
+    public void rejectsLeaseBoundToAnotherHardwareId() throws Exception {
+        String token = sign(lease("other-hardware-id", TimeUnit.DAYS.toMillis(7)), keyPair.getPrivate());
+        leaseStore.store(LICENSE_KEY, HARDWARE_ID, token);
+        assertNull(leaseStore.getValidLease(LICENSE_KEY, HARDWARE_ID));
+
+        // Stored for the machine it was issued to, the lease is still not valid on this one.
+        leaseStore.store(LICENSE_KEY, "other-hardware-id", token);
+        assertNotNull(leaseStore.getValidLease(LICENSE_KEY, "other-hardware-id"));
+        assertNull(leaseStore.getValidLease(LICENSE_KEY, HARDWARE_ID));
+    }
+
+    @Test
+    public void revokedLeaseIsDropped() throws Exception {
+        leaseStore.store(LICENSE_KEY, HARDWARE_ID, sign(lease(HARDWARE_ID, TimeUnit.DAYS.toMillis(7)), keyPair.getPrivate()));
+        leaseStore.revoke(LICENSE_KEY, HARDWARE_ID);
+
+        assertNull(leaseStore.getValidLease(LICENSE_KEY, HARDWARE_ID));
+        assertNull(new LicenseLeaseStore(leaseFile, keyPair.getPublic()).getValidLease(LICENSE_KEY, HARDWARE_ID));
+    }
+
+    @Test
+    public void leasesAreDisabledWithoutPublicKey() throws Exception {
+        LicenseLeaseStore unconfigured = new LicenseLeaseStore(leaseFile, null);
+        unconfigured.store(LICENSE_KEY, HARDWARE_ID, sign(lease(HARDWARE_ID, TimeUnit.DAYS.toMillis(7)), keyPair.getPrivate()));
+
+        assertNull(unconfigured.getValidLease(LICENSE_KEY, HARDWARE_ID));
+    }
+
+    private static LicenseLease lease(String hardwareId, long lifetime) {
+        LicenseLease lease = new LicenseLease();
+        lease.setLicenseKeySha256(JarCache.sha256(ByteBuffer.wrap(LICENSE_KEY.getBytes(StandardCharsets.UTF_8))));
+        lease.setHardwareId(hardwareId);
+        lease.setIssuedAt(System.currentTimeMillis());
+        lease.setExpiresAt(lease.getIssuedAt() + lifetime);
+        return lease;
+    }
+
+    private String sign(LicenseLease lease, PrivateKey privateKey) throws Exception {
+        byte[] payload = mapper.writeValueAsBytes(lease);
+        Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(privateKey);
+        signer.update(payload);
+        return encode(payload) + "." + encode(signer.sign());
+    }
+
+    private static String pem(PublicKey publicKey) {
+        return "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(publicKey.getEncoded())
+                + "\n-----END PUBLIC KEY-----\n";
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
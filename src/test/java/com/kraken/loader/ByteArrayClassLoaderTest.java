@@ -0,0 +1,235 @@
+package com.kraken.loader;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads interdependent plugin classes from many threads at once. Each plugin class extends a utility class chain
+ * which is shared between two plugin loaders through a SharedClassLoader, so loading a plugin class also loads its
+ * superclasses through the other loader.
+ */
+public class ByteArrayClassLoaderTest {
+    private static final String PACKAGE = "com.krakenplugins.stress";
+    private static final int UTIL_CLASSES = 10;
+    private static final int PLUGIN_CLASSES = 60;
+    private static final int THREADS = 8;
+
+    private static Map<String, byte[]> utilClasses;
+    private static Map<String, byte[]> pluginA;
+    private static Map<String, byte[]> pluginB;
+
+    @BeforeClass
+    public static void compileClasses() throws IOException {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("Util0", "public class Util0 { public int v() { return 0; } }");
+        for (int i = 1; i < UTIL_CLASSES; i++) {
+            sources.put("Util" + i, "public class Util" + i + " extends Util" + (i - 1)
+                    + " { public int v() { return " + i + " + super.v(); } }");
+        }
+        for (String plugin : new String[]{"A", "B"}) {
+            for (int i = 0; i < PLUGIN_CLASSES; i++) {
+                int next = (i + 1) % PLUGIN_CLASSES;
+                sources.put(plugin + i, "public class " + plugin + i + " extends Util" + (i % UTIL_CLASSES)
+                        + " { public int x() { return " + i + "; }"
+                        + " public int run() { return v() + new " + plugin + next + "().x(); } }");
+            }
+        }
+
+        Map<String, byte[]> classes = TestClasses.compile(PACKAGE, sources);
+        utilClasses = filter(classes, "Util");
+        pluginA = filter(classes, "A");
+        pluginB = filter(classes, "B");
+    }
+
+    @Test(timeout = 30_000)
+    public void loadsInterdependentClassesFromManyThreadsWithoutDeadlock() throws Exception {
+        ByteArrayClassLoader loaderA = new ByteArrayClassLoader(new HeapClassStore(merge(utilClasses, pluginA)), Collections.emptyMap());
+        ByteArrayClassLoader loaderB = new ByteArrayClassLoader(new HeapClassStore(merge(utilClasses, pluginB)), Collections.emptyMap());
+        SharedClassLoader shared = SharedClassLoader.deduplicate(List.of(loaderA, loaderB), "com/krakenplugins", "net.runelite.client.plugins.Plugin");
+        assertEquals(UTIL_CLASSES, shared.getSharedClassCount());
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < PLUGIN_CLASSES; i++) {
+            names.add("A" + i);
+            names.add("B" + i);
+        }
+
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        runConcurrently(THREADS, thread -> {
+            // Every thread walks the classes in a different order so threads race for the same classes.
+            List<String> order = new ArrayList<>(names);
+            Collections.rotate(order, thread * names.size() / THREADS);
+            if (thread % 2 == 1) {
+                Collections.reverse(order);
+            }
+
+            for (String name : order) {
+                try {
+                    int i = Integer.parseInt(name.substring(1));
+                    ClassLoader loader = name.startsWith("A") ? loaderA : loaderB;
+                    Class<?> clazz = Class.forName(PACKAGE + "." + name, true, loader);
+                    Object instance = clazz.getDeclaredConstructor().newInstance();
+                    int result = (int) clazz.getMethod("run").invoke(instance);
+                    assertEquals(utilSum(i % UTIL_CLASSES) + (i + 1) % PLUGIN_CLASSES, result);
+                    assertEquals(shared, clazz.getSuperclass().getClassLoader());
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        });
+
+        assertTrue("Class loading failed: " + failures.peek(), failures.isEmpty());
+    }
+
+    @Test(timeout = 30_000)
+    public void parallelLoadingIsFasterThanSerialLoading() throws Exception {
+        ByteArrayClassLoader parallel = new ByteArrayClassLoader(new SlowClassStore(merge(utilClasses, pluginA)), Collections.emptyMap());
+        ByteArrayClassLoader serial = new SerialClassLoader(new SlowClassStore(merge(utilClasses, pluginA)));
+        assertTrue(parallel.isRegisteredAsParallelCapable());
+        assertFalse(serial.isRegisteredAsParallelCapable());
+
+        long serialTime = timeLoading(serial);
+        long parallelTime = timeLoading(parallel);
+        System.out.printf("Loaded %d classes on %d threads: serial loader %d ms, parallel loader %d ms%n",
+                UTIL_CLASSES + PLUGIN_CLASSES, THREADS, serialTime, parallelTime);
+        assertTrue("Parallel loading took " + parallelTime + " ms, serial loading took " + serialTime + " ms",
+                parallelTime < serialTime);
+    }
+
+    private static long timeLoading(ClassLoader loader) throws Exception {
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        long start = System.nanoTime();
+        runConcurrently(THREADS, thread -> {
+            for (int i = thread; i < PLUGIN_CLASSES; i += THREADS) {
+                try {
+                    Class.forName(PACKAGE + ".A" + i, false, loader);
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        });
+        assertTrue("Class loading failed: " + failures.peek(), failures.isEmpty());
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private interface ThreadBody {
+        void run(int thread);
+    }
+
+    private static void runConcurrently(int threads, ThreadBody body) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                body.run(thread);
+            }, "class-loading-stress-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private static int utilSum(int i) {
+        return i * (i + 1) / 2;
+    }
+
+    private static Map<String, byte[]> filter(Map<String, byte[]> classes, String prefix) {
+        return classes.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(PACKAGE + "." + prefix))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    private static Map<String, byte[]> merge(Map<String, byte[]> first, Map<String, byte[]> second) {
+        Map<String, byte[]> merged = new HashMap<>(first);
+        merged.putAll(second);
+        return merged;
+    }
+
+    /**
+     * The class loader before it was registered as parallel capable, every class is loaded under the loader's lock.
+     */
+    private static class SerialClassLoader extends ByteArrayClassLoader {
+        SerialClassLoader(ClassStore classStore) {
+            super(classStore, Collections.emptyMap());
+        }
+    }
+
+    /**
+     * Class store which takes a fixed time to hand out each class, like a store which inflates or reads the class
+     * from disk, so the effect of loading classes in parallel does not depend on the speed of the machine.
+     */
+    private static class SlowClassStore implements ClassStore {
+        private final HeapClassStore store;
+
+        SlowClassStore(Map<String, byte[]> classes) {
+            this.store = new HeapClassStore(classes);
+        }
+
+        @Override
+        public Set<String> getClassNames() {
+            return store.getClassNames();
+        }
+
+        @Override
+        public String getSuperclassName(String className) {
+            return store.getSuperclassName(className);
+        }
+
+        @Override
+        public String getClassHash(String className) {
+            return store.getClassHash(className);
+        }
+
+        @Override
+        public ByteBuffer peek(String className) {
+            return store.peek(className);
+        }
+
+        @Override
+        public ByteBuffer load(String className) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return store.load(className);
+        }
+
+        @Override
+        public void release(String className) {
+            store.release(className);
+        }
+
+        @Override
+        public ByteBuffer take(String className) {
+            return store.take(className);
+        }
+    }
+}
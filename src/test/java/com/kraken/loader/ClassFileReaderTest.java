@@ -0,0 +1,142 @@
+package com.kraken.loader;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Reads class file headers from compiled classes and from class files which have been cut short or corrupted.
+ */
+public class ClassFileReaderTest {
+    private static final String PACKAGE = "com.krakenplugins.reader";
+
+    private static byte[] child;
+
+    @BeforeClass
+    public static void compileClasses() throws IOException {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("Base", "public class Base { }");
+        sources.put("Helper", "public class Helper { }");
+        sources.put("Child", "public class Child extends Base { java.util.List<Helper> helpers; long big = 1L << 40; }");
+        child = TestClasses.compile(PACKAGE, sources).get(PACKAGE + ".Child");
+    }
+
+    @Test
+    public void readsSuperclassAndReferencedClasses() {
+        ByteBuffer classFile = ByteBuffer.wrap(child);
+
+        assertEquals(PACKAGE + ".Base", ClassFileReader.readSuperclassName(classFile));
+        assertEquals(Set.of(PACKAGE + ".Base", PACKAGE + ".Child", PACKAGE + ".Helper"),
+                ClassFileReader.readReferencedClassNames(classFile, "com/krakenplugins/reader"));
+        assertEquals(false, ClassFileReader.hasMutableStaticFields(classFile));
+        assertEquals("The buffer's position is not modified", 0, classFile.position());
+    }
+
+    @Test
+    public void truncatedClassFileIsMalformed() {
+        // Every cut inside the constant pool, access flags or super_class index must be reported as malformed
+        // rather than throwing.
+        int headerEnd = superClassOffset(child) + 2;
+        for (int length = 0; length < headerEnd; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(child, length));
+            assertNull("Truncated to " + length + " bytes", ClassFileReader.readSuperclassName(truncated));
+        }
+
+        // Fields follow the super_class index, so any cut before the end of the fields is malformed too.
+        for (int length = 0; length < child.length - 64; length += 8) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(child, length));
+            assertNull("Truncated to " + length + " bytes", ClassFileReader.hasMutableStaticFields(truncated));
+        }
+
+        // The Utf8 entries can only be read when the whole constant pool is present.
+        int constantPoolEnd = superClassOffset(child) - 4;
+        for (int length = 0; length < constantPoolEnd; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(child, length));
+            assertNull("Truncated to " + length + " bytes", ClassFileReader.readReferencedClassNames(truncated, "com/krakenplugins"));
+        }
+    }
+
+    @Test
+    public void constantPoolCountPastTheEndIsMalformed() {
+        byte[] corrupt = child.clone();
+        corrupt[8] = (byte) 0xFF;
+        corrupt[9] = (byte) 0xFF;
+
+        assertNull(ClassFileReader.readSuperclassName(ByteBuffer.wrap(corrupt)));
+        assertNull(ClassFileReader.readReferencedClassNames(ByteBuffer.wrap(corrupt), "com/krakenplugins"));
+    }
+
+    @Test
+    public void unknownConstantPoolTagIsMalformed() {
+        byte[] corrupt = child.clone();
+        // The first constant pool entry's tag follows the magic, versions and constant pool count.
+        corrupt[10] = (byte) 2;
+
+        assertNull(ClassFileReader.readSuperclassName(ByteBuffer.wrap(corrupt)));
+        assertNull(ClassFileReader.readReferencedClassNames(ByteBuffer.wrap(corrupt), "com/krakenplugins"));
+    }
+
+    @Test
+    public void superclassIndexOutsideTheConstantPoolIsMalformed() {
+        byte[] corrupt = child.clone();
+        int superClass = superClassOffset(child);
+        corrupt[superClass] = (byte) 0xFF;
+        corrupt[superClass + 1] = (byte) 0xFF;
+
+        assertNull(ClassFileReader.readSuperclassName(ByteBuffer.wrap(corrupt)));
+    }
+
+    @Test
+    public void invalidMagicIsMalformed() {
+        byte[] corrupt = child.clone();
+        corrupt[0] = 0;
+
+        assertNull(ClassFileReader.readSuperclassName(ByteBuffer.wrap(corrupt)));
+        assertNull(ClassFileReader.readReferencedClassNames(ByteBuffer.wrap(corrupt), "com/krakenplugins"));
+    }
+
+    /**
+     * Walks the constant pool of a well formed class file to find the offset of its super_class index.
+     */
+    private static int superClassOffset(byte[] classFile) {
+        ByteBuffer buf = ByteBuffer.wrap(classFile);
+        buf.position(8);
+        int count = buf.getShort() & 0xFFFF;
+        for (int i = 1; i < count; i++) {
+            int tag = buf.get() & 0xFF;
+            switch (tag) {
+                case 1:
+                    buf.position(buf.position() + 2 + (buf.getShort() & 0xFFFF));
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    buf.position(buf.position() + 2);
+                    break;
+                case 15:
+                    buf.position(buf.position() + 3);
+                    break;
+                case 5:
+                case 6:
+                    buf.position(buf.position() + 8);
+                    i++;
+                    break;
+                default:
+                    buf.position(buf.position() + 4);
+            }
+        }
+        // Access flags and this_class
+        return buf.position() + 4;
+    }
+}
@@ -0,0 +1,103 @@
+package com.kraken.loader;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips classes through a CompressedClassStore and defines them from it.
+ */
+public class CompressedClassStoreTest {
+    private static final String PACKAGE = "com.krakenplugins.compressed";
+
+    private static Map<String, byte[]> classes;
+
+    @BeforeClass
+    public static void compileClasses() throws IOException {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("Base", "public class Base { public int v() { return 1; } }");
+        sources.put("Child", "public class Child extends Base { public int v() { return 2 + super.v(); } }");
+        classes = TestClasses.compile(PACKAGE, sources);
+    }
+
+    @Test
+    public void storesClassesCompressedUntilTheyAreTaken() {
+        long compressedBefore = CompressedClassStore.getCompressedBytes();
+        long uncompressedBefore = CompressedClassStore.getUncompressedBytes();
+        CompressedClassStore store = store();
+        byte[] child = classes.get(PACKAGE + ".Child");
+
+        assertEquals(Set.of(PACKAGE + ".Base", PACKAGE + ".Child"), store.getClassNames());
+        assertEquals(PACKAGE + ".Base", store.getSuperclassName(PACKAGE + ".Child"));
+        assertEquals(JarCache.sha256(ByteBuffer.wrap(child)), store.getClassHash(PACKAGE + ".Child"));
+        long total = classes.values().stream().mapToLong(bytes -> bytes.length).sum();
+        assertEquals(total, CompressedClassStore.getUncompressedBytes() - uncompressedBefore);
+        assertTrue(CompressedClassStore.getCompressedBytes() - compressedBefore < total);
+
+        assertArrayEquals(child, bytes(store.peek(PACKAGE + ".Child")));
+        assertArrayEquals(child, bytes(store.take(PACKAGE + ".Child")));
+        assertNull(store.take(PACKAGE + ".Child"));
+        assertNull(store.load(PACKAGE + ".Child"));
+
+        store.release(PACKAGE + ".Base");
+        assertNull(store.peek(PACKAGE + ".Base"));
+        assertEquals(compressedBefore, CompressedClassStore.getCompressedBytes());
+        assertEquals(uncompressedBefore, CompressedClassStore.getUncompressedBytes());
+
+        // Metadata outlives the bytecode
+        assertEquals(PACKAGE + ".Base", store.getSuperclassName(PACKAGE + ".Child"));
+    }
+
+    @Test
+    public void clearDropsEveryClassNotTakenYet() {
+        long uncompressedBefore = CompressedClassStore.getUncompressedBytes();
+        CompressedClassStore store = store();
+        store.take(PACKAGE + ".Base");
+
+        store.clear();
+
+        assertNull(store.load(PACKAGE + ".Child"));
+        assertEquals(uncompressedBefore, CompressedClassStore.getUncompressedBytes());
+    }
+
+    @Test
+    public void classLoaderDefinesClassesFromTheStore() throws Exception {
+        CompressedClassStore store = store();
+        ByteArrayClassLoader loader = new ByteArrayClassLoader(store, Collections.emptyMap());
+
+        Class<?> child = loader.loadClass(PACKAGE + ".Child");
+
+        assertSame(loader, child.getClassLoader());
+        assertEquals(3, child.getMethod("v").invoke(child.getConstructor().newInstance()));
+        assertNull("Defined classes are released from the store", store.peek(PACKAGE + ".Child"));
+    }
+
+    private static CompressedClassStore store() {
+        CompressedClassStore store = new CompressedClassStore();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            // Pad the buffer so the offset and length are honoured
+            byte[] padded = new byte[entry.getValue().length + 8];
+            System.arraycopy(entry.getValue(), 0, padded, 4, entry.getValue().length);
+            store.append(entry.getKey(), padded, 4, entry.getValue().length);
+        }
+        return store;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
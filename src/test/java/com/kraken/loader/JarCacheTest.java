@@ -0,0 +1,88 @@
+package com.kraken.loader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class JarCacheTest {
+    private static final long MAX_CACHE_BYTES = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path cacheDir;
+    private JarCache jarCache;
+
+    @Before
+    public void setUp() {
+        cacheDir = folder.getRoot().toPath().resolve("cache");
+        jarCache = new JarCache(cacheDir, MAX_CACHE_BYTES);
+    }
+
+    @Test
+    public void packSizesCountTowardsTheLimit() throws IOException {
+        commit("plugin-a", "a1", 40);
+        Files.write(jarCache.packPath("a1"), new byte[40]);
+        commit("plugin-a", "a2", 10);
+        assertTrue(Files.exists(cacheDir.resolve("a1.jar")));
+
+        // 40 + 10 + 20 bytes of JARs fit, the pack built from a1 pushes the cache over the limit.
+        commit("plugin-b", "b1", 20);
+
+        assertFalse(Files.exists(cacheDir.resolve("a1.jar")));
+        assertFalse(Files.exists(jarCache.packPath("a1")));
+        assertEquals("a2", jarCache.get("plugin-a").getSha256());
+        assertEquals("b1", jarCache.get("plugin-b").getSha256());
+    }
+
+    @Test
+    public void neverEvictsLatestOrOpenJars() throws IOException {
+        ClassLoader loader = new ClassLoader() {};
+        commit("plugin-a", "a1", 60);
+        jarCache.retain(loader, "a1");
+        commit("plugin-a", "a2", 60);
+        commit("plugin-b", "b1", 60);
+        commit("plugin-b", "b2", 60);
+
+        // Everything is over the limit, only b1 is neither the latest version of its JAR nor in use.
+        assertTrue(Files.exists(cacheDir.resolve("a1.jar")));
+        assertTrue(Files.exists(cacheDir.resolve("a2.jar")));
+        assertFalse(Files.exists(cacheDir.resolve("b1.jar")));
+        assertTrue(Files.exists(cacheDir.resolve("b2.jar")));
+        assertNotNull(loader);
+    }
+
+    @Test
+    public void openDoesNotRewriteTheIndexForRecentlyUsedJars() throws IOException {
+        commit("plugin-a", "a1", 10);
+        Path indexFile = cacheDir.resolve("index.json");
+        byte[] before = Files.readAllBytes(indexFile);
+
+        CachedJar cached = jarCache.get("plugin-a");
+        for (int i = 0; i < 3; i++) {
+            try (InputStream in = jarCache.open(cached)) {
+                assertEquals(10, in.readAllBytes().length);
+            }
+        }
+
+        assertArrayEquals(before, Files.readAllBytes(indexFile));
+    }
+
+    private void commit(String key, String sha256, int size) throws IOException {
+        Path tmp = jarCache.createTempFile();
+        Files.write(tmp, new byte[size]);
+        jarCache.commit(key, "etag-" + sha256, tmp, sha256, size);
+    }
+}
@@ -0,0 +1,106 @@
+package com.kraken.loader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Applies patches built the way the Kraken API builds them to matching and mismatching base versions.
+ */
+public class JarPatcherTest {
+    private static final byte[] BASE = "HEADER|plugin version 1|FOOTER".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TARGET = "HEADER|plugin version 2, now faster|FOOTER".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void patchRoundTripsToTheNewVersion() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer base = ByteBuffer.wrap(BASE);
+
+        String sha256 = JarPatcher.apply(base, new ByteArrayInputStream(upgradePatch()), out);
+
+        assertArrayEquals(TARGET, out.toByteArray());
+        assertEquals(JarCache.sha256(ByteBuffer.wrap(TARGET)), sha256);
+        assertEquals("The buffer's position is not modified", 0, base.position());
+    }
+
+    @Test
+    public void patchAppliedToTheWrongBaseDoesNotMatchTheExpectedHash() throws IOException {
+        byte[] otherBase = "header|plugin version 1|FOOTER".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        String sha256 = JarPatcher.apply(ByteBuffer.wrap(otherBase), new ByteArrayInputStream(upgradePatch()), out);
+
+        // The patch still produces output, only the hash reveals that the base was wrong.
+        assertEquals(TARGET.length, out.size());
+        assertNotEquals(JarCache.sha256(ByteBuffer.wrap(TARGET)), sha256);
+    }
+
+    @Test
+    public void patchCopyingPastTheEndOfTheBaseIsRejected() throws IOException {
+        byte[] shortBase = "HEADER|".getBytes(StandardCharsets.UTF_8);
+
+        assertRejected(ByteBuffer.wrap(shortBase), upgradePatch(), "JAR patch copies bytes outside of the previous version");
+    }
+
+    @Test
+    public void malformedPatchesAreRejected() throws IOException {
+        byte[] notAPatch = "PK\u0003\u0004".getBytes(StandardCharsets.ISO_8859_1);
+        assertRejected(ByteBuffer.wrap(BASE), notAPatch, "Not a Kraken JAR patch");
+
+        ByteArrayOutputStream unknownOp = new ByteArrayOutputStream();
+        try (DataOutputStream ops = opsStream(unknownOp)) {
+            ops.writeByte(7);
+        }
+        assertRejected(ByteBuffer.wrap(BASE), unknownOp.toByteArray(), "Unknown JAR patch operation: 7");
+    }
+
+    private static void assertRejected(ByteBuffer base, byte[] patch, String message) {
+        try {
+            JarPatcher.apply(base, new ByteArrayInputStream(patch), new ByteArrayOutputStream());
+            fail("Expected the patch to be rejected");
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    /**
+     * Copies the header and footer from the base and inserts the new middle section.
+     */
+    private static byte[] upgradePatch() throws IOException {
+        byte[] middle = "plugin version 2, now faster".getBytes(StandardCharsets.UTF_8);
+        int footer = BASE.length - "|FOOTER".length();
+
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        try (DataOutputStream ops = opsStream(patch)) {
+            ops.writeByte(1);
+            ops.writeLong(0);
+            ops.writeInt("HEADER|".length());
+            ops.writeByte(2);
+            ops.writeInt(middle.length);
+            ops.write(middle);
+            ops.writeByte(1);
+            ops.writeLong(footer);
+            ops.writeInt(BASE.length - footer);
+            ops.writeByte(0);
+        }
+        return patch.toByteArray();
+    }
+
+    private static DataOutputStream opsStream(ByteArrayOutputStream patch) throws IOException {
+        DataOutputStream header = new DataOutputStream(patch);
+        header.writeInt(0x4B524B50);
+        header.writeByte(1);
+        return new DataOutputStream(new DeflaterOutputStream(patch));
+    }
+}
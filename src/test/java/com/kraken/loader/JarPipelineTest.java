@@ -0,0 +1,239 @@
+package com.kraken.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Streams JARs through the download, inflate and index stages, including stages which stall or fail part way.
+ */
+public class JarPipelineTest {
+    private static final String PACKAGE = "com.krakenplugins.pipeline";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int QUEUE_CAPACITY = 8;
+    private static final int LARGE_RESOURCE_SIZE = 4 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, byte[]> classes;
+    private static byte[] largeResource;
+
+    private ExecutorService executor;
+    private JarCache jarCache;
+    private Path cacheDir;
+
+    @BeforeClass
+    public static void compileClasses() throws IOException {
+        classes = TestClasses.compile(PACKAGE, Map.of("Greeter", "public class Greeter { public String greet() { return \"hi\"; } }"));
+
+        // Random bytes do not deflate, so the compressed JAR is at least as large as the resource.
+        largeResource = new byte[LARGE_RESOURCE_SIZE];
+        new Random(42).nextBytes(largeResource);
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        cacheDir = folder.getRoot().toPath().resolve("cache");
+        jarCache = new JarCache(cacheDir, Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void loadsClassesAndResourcesAndCachesTheJar() throws Exception {
+        byte[] jar = jar(false);
+        JarPipeline pipeline = new JarPipeline(executor, new BufferPool(), jarCache, "com/krakenplugins");
+
+        ByteArrayClassLoader loader = pipeline.loadFromNetwork(new ByteArrayInputStream(jar), "plugin", null);
+
+        Object greeter = loader.loadClass(PACKAGE + ".Greeter").getConstructor().newInstance();
+        assertEquals("hi", greeter.getClass().getMethod("greet").invoke(greeter));
+        try (InputStream in = loader.getResourceAsStream("config.json")) {
+            assertArrayEquals("{}".getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+        }
+        assertEquals(JarCache.sha256(ByteBuffer.wrap(jar)), jarCache.get("plugin").getSha256());
+        assertNoTempFiles();
+    }
+
+    @Test(timeout = 30_000)
+    public void stalledStageStopsTheDownload() throws Exception {
+        byte[] jar = jar(true);
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(jar));
+        StallingBufferPool bufferPool = new StallingBufferPool();
+        JarPipeline pipeline = new JarPipeline(executor, bufferPool, jarCache, "com/krakenplugins");
+
+        Future<ByteArrayClassLoader> load = executor.submit(() -> pipeline.loadFromNetwork(in, "plugin", null));
+        assertTrue(bufferPool.stalled.await(10, TimeUnit.SECONDS));
+
+        // The download stage may fill the chunk queue, hold one more chunk and hand a few to the JarInputStream, but
+        // must not read the rest of the JAR while the inflate stage is stalled.
+        long read = waitUntilSettled(in.read);
+        assertTrue("Read " + read + " bytes while the inflate stage was stalled", read <= (QUEUE_CAPACITY + 4L) * CHUNK_SIZE);
+        assertTrue(read < jar.length);
+
+        bufferPool.resume.countDown();
+        ByteArrayClassLoader loader = load.get(10, TimeUnit.SECONDS);
+        assertEquals(jar.length, in.read.get());
+        try (InputStream resource = loader.getResourceAsStream("large.bin")) {
+            assertArrayEquals(largeResource, resource.readAllBytes());
+        }
+    }
+
+    @Test
+    public void failedDownloadFailsTheLoadAndDiscardsThePack() throws Exception {
+        byte[] jar = jar(true);
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(jar)) {
+            private long remaining = jar.length / 2;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    throw new IOException("Connection reset");
+                }
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                remaining -= n;
+                return n;
+            }
+        };
+        JarPipeline pipeline = new JarPipeline(executor, new BufferPool(), jarCache, "com/krakenplugins");
+
+        try {
+            pipeline.loadFromNetwork(in, "plugin", null);
+            fail("Expected the download to fail");
+        } catch (IOException e) {
+            // The download error reaches the index stage through the inflate stage
+            assertEquals("Connection reset", e.getCause().getMessage());
+        }
+
+        assertNull(jarCache.get("plugin"));
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void truncatedJarFailsTheInflateStage() throws Exception {
+        byte[] jar = jar(true);
+        byte[] truncated = Arrays.copyOf(jar, jar.length / 2);
+        JarPipeline pipeline = new JarPipeline(executor, new BufferPool(), jarCache, "com/krakenplugins");
+
+        try {
+            pipeline.loadFromNetwork(new ByteArrayInputStream(truncated), "plugin", null);
+            fail("Expected the truncated JAR to fail");
+        } catch (IOException e) {
+            // Reported by the JarInputStream in the inflate stage
+        }
+
+        assertNull(jarCache.get("plugin"));
+        assertNoTempFiles();
+    }
+
+    private byte[] jar(boolean large) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                out.write(entry.getValue());
+            }
+            out.putNextEntry(new JarEntry("config.json"));
+            out.write("{}".getBytes(StandardCharsets.UTF_8));
+            if (large) {
+                out.putNextEntry(new JarEntry("large.bin"));
+                out.write(largeResource);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    private static long waitUntilSettled(AtomicLong counter) throws InterruptedException {
+        long last = -1;
+        while (counter.get() != last) {
+            last = counter.get();
+            Thread.sleep(200);
+        }
+        return last;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        final AtomicLong read = new AtomicLong();
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                read.addAndGet(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Blocks every buffer request made by the inflate stage until the test resumes it. The download stage always
+     * requests the first buffer since the inflate stage has nothing to read until the first chunk is queued.
+     */
+    private static class StallingBufferPool extends BufferPool {
+        final CountDownLatch stalled = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        private final AtomicReference<Thread> downloadThread = new AtomicReference<>();
+
+        @Override
+        public byte[] acquire(int minSize) {
+            downloadThread.compareAndSet(null, Thread.currentThread());
+            if (downloadThread.get() != Thread.currentThread()) {
+                stalled.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.acquire(minSize);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.kraken.loader;
+
+import com.google.inject.Guice;
+import com.kraken.api.model.PreSignedURL;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Downloads JARs from a local stand-in for S3 and checks the size of a JAR is learned from a single byte range
+ * request rather than by starting a full download.
+ */
+public class JarResourceLoaderTest {
+    private static final int LARGE_RESOURCE_SIZE = 5 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private JarResourceLoader jarResourceLoader;
+    private volatile byte[] jar;
+    private final List<String> requestedRanges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/plugin.jar", this::handle);
+        server.start();
+
+        JarCache jarCache = new JarCache(folder.getRoot().toPath().resolve("cache"), Long.MAX_VALUE);
+        jarResourceLoader = Guice.createInjector(binder -> {
+            binder.bind(JarCache.class).toInstance(jarCache);
+            binder.bind(BandwidthGovernor.class).toInstance(new BandwidthGovernor());
+        }).getInstance(JarResourceLoader.class);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test(timeout = 60_000)
+    public void smallJarIsDownloadedWithASingleFullRequest() throws IOException {
+        byte[] resource = "{}".getBytes();
+        jar = jar(resource);
+
+        ByteArrayClassLoader loader = jarResourceLoader.loadJarFromSignedUrl("com/krakenplugins", url());
+
+        assertResource(loader, resource);
+        assertEquals(List.of("bytes=0-0", "none"), requestedRanges);
+    }
+
+    @Test(timeout = 60_000)
+    public void largeJarIsDownloadedAsRangesWithoutAFullRequest() throws IOException {
+        byte[] resource = new byte[LARGE_RESOURCE_SIZE];
+        new Random(3).nextBytes(resource);
+        jar = jar(resource);
+
+        ByteArrayClassLoader loader = jarResourceLoader.loadJarFromSignedUrl("com/krakenplugins", url());
+
+        assertResource(loader, resource);
+        assertEquals("bytes=0-0", requestedRanges.get(0));
+        assertTrue(requestedRanges.size() > 2);
+        assertTrue("Every request after the probe is a range request", requestedRanges.stream().noneMatch("none"::equals));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = jar;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        requestedRanges.add(range == null ? "none" : range);
+        exchange.getResponseHeaders().set("ETag", "\"v1\"");
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (range == null) {
+                exchange.sendResponseHeaders(200, body.length);
+                out.write(body);
+                return;
+            }
+
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Math.min(Integer.parseInt(bounds[1]), body.length - 1);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            out.write(body, start, end - start + 1);
+        }
+    }
+
+    private PreSignedURL url() {
+        PreSignedURL url = new PreSignedURL();
+        url.setUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/plugin.jar");
+        return url;
+    }
+
+    private static void assertResource(ByteArrayClassLoader loader, byte[] expected) throws IOException {
+        assertNotNull(loader);
+        try (InputStream in = loader.getResourceAsStream("data/resource.bin")) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+
+    private static byte[] jar(byte[] resource) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            out.putNextEntry(new JarEntry("data/resource.bin"));
+            out.write(resource);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,203 @@
+package com.kraken.loader;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes Kraken packs, reads them back on a later "launch" and rejects packs which are corrupt or were built from a
+ * different JAR.
+ */
+public class KrakenPackTest {
+    private static final String PACKAGE = "com.krakenplugins.pack";
+    private static final String JAR_SHA256 = JarCache.sha256(ByteBuffer.wrap("plugin.jar".getBytes(StandardCharsets.UTF_8)));
+    private static final int HEADER_SIZE = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, byte[]> classes;
+    private static byte[] text;
+    private static byte[] noise;
+
+    @BeforeClass
+    public static void compileClasses() throws IOException {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("Base", "public class Base { public int v() { return 1; } }");
+        sources.put("Child", "public class Child extends Base { public int v() { return 2 + super.v(); } }");
+        classes = TestClasses.compile(PACKAGE, sources);
+
+        // Text is stored compressed, random bytes are stored as they are.
+        text = "{\"name\":\"kraken\"}\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        noise = new byte[4096];
+        new Random(7).nextBytes(noise);
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        Path file = write();
+
+        KrakenPack pack = KrakenPack.open(file, JAR_SHA256);
+
+        assertNotNull(pack);
+        assertEquals(JAR_SHA256, pack.getJarSha256());
+        assertEquals(List.of(PACKAGE + ".Base", PACKAGE + ".Child"), pack.getClassNames());
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            int index = pack.findClass(entry.getKey());
+            assertTrue(index >= 0);
+            assertArrayEquals(entry.getValue(), bytes(pack.readClass(index)));
+            assertEquals(JarCache.sha256(ByteBuffer.wrap(entry.getValue())), pack.getClassHash(index));
+        }
+        assertEquals(PACKAGE + ".Base", pack.getSuperclassName(pack.findClass(PACKAGE + ".Child")));
+        assertEquals("java.lang.Object", pack.getSuperclassName(pack.findClass(PACKAGE + ".Base")));
+        assertTrue(pack.findClass(PACKAGE + ".Missing") < 0);
+
+        Map<String, ByteBuffer> resources = pack.getResources();
+        assertEquals(2, resources.size());
+        assertArrayEquals(text, bytes(resources.get("data/config.json")));
+        assertArrayEquals(noise, bytes(resources.get("data/noise.bin")));
+        assertNull(resources.get("data/missing.bin"));
+    }
+
+    @Test
+    public void packClassStoreDefinesClassesAndReleasesThePack() throws Exception {
+        KrakenPack pack = KrakenPack.open(write(), JAR_SHA256);
+        PackClassStore store = new PackClassStore(pack, true);
+        ByteArrayClassLoader loader = new ByteArrayClassLoader(store, pack.getResources());
+
+        Class<?> child = loader.loadClass(PACKAGE + ".Child");
+
+        assertSame(loader, child.getClassLoader());
+        assertEquals(3, child.getMethod("v").invoke(child.getConstructor().newInstance()));
+        // Both classes are defined so the store no longer holds the pack, the loader's resources still work.
+        assertNull(store.getSuperclassName(PACKAGE + ".Child"));
+        assertNull(store.peek(PACKAGE + ".Base"));
+        assertEquals(2, store.getClassNames().size());
+        assertNotNull(loader.getResource("data/config.json"));
+    }
+
+    @Test
+    public void corruptClassFailsVerification() throws IOException {
+        Path file = write();
+        // Class data is written straight after the header in the order classes are appended.
+        flipByte(file, HEADER_SIZE + 16);
+        PackClassStore store = new PackClassStore(KrakenPack.open(file, JAR_SHA256), true);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                store.load(PACKAGE + ".Base");
+                fail("Expected the corrupt class to fail verification");
+            } catch (ClassFormatError e) {
+                // Expected on every attempt
+            }
+        }
+        assertNull(store.take(PACKAGE + ".Base"));
+        assertNotNull(store.take(PACKAGE + ".Child"));
+    }
+
+    @Test
+    public void rejectsCorruptHeaders() throws IOException {
+        Path file = write();
+        byte[] valid = Files.readAllBytes(file);
+
+        // Magic number
+        flipByte(file, 0);
+        assertNull(KrakenPack.open(file, JAR_SHA256));
+
+        // Version
+        Files.write(file, valid);
+        flipByte(file, 4);
+        assertNull(KrakenPack.open(file, JAR_SHA256));
+
+        // Class count no longer matches the size of the tables
+        Files.write(file, valid);
+        flipByte(file, 43);
+        assertNull(KrakenPack.open(file, JAR_SHA256));
+
+        // Truncated tables
+        Files.write(file, Arrays.copyOf(valid, valid.length - 1));
+        assertNull(KrakenPack.open(file, JAR_SHA256));
+
+        // Shorter than a header
+        Files.write(file, Arrays.copyOf(valid, HEADER_SIZE - 1));
+        assertNull(KrakenPack.open(file, JAR_SHA256));
+
+        Files.write(file, valid);
+        assertNotNull(KrakenPack.open(file, JAR_SHA256));
+    }
+
+    @Test
+    public void rejectsPacksBuiltFromAnotherJar() throws IOException {
+        Path file = write();
+        String otherSha256 = JarCache.sha256(ByteBuffer.wrap("other.jar".getBytes(StandardCharsets.UTF_8)));
+
+        assertNull(KrakenPack.open(file, otherSha256));
+        assertNull(KrakenPack.open(folder.getRoot().toPath().resolve("missing.kpack"), JAR_SHA256));
+    }
+
+    @Test
+    public void closingAnUnfinishedWriterDiscardsIt() throws IOException {
+        Path dir = folder.newFolder("unfinished").toPath();
+        try (KrakenPack.Writer writer = new KrakenPack.Writer(dir)) {
+            writer.appendResource("data/noise.bin", noise, 0, noise.length);
+        }
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertFalse(files.findAny().isPresent());
+        }
+    }
+
+    private Path write() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Path file = dir.resolve(JAR_SHA256 + ".kpack");
+        try (KrakenPack.Writer writer = new KrakenPack.Writer(dir)) {
+            // Appended out of order, the pack sorts its tables by name
+            byte[] child = classes.get(PACKAGE + ".Child");
+            byte[] base = classes.get(PACKAGE + ".Base");
+            writer.appendClass(PACKAGE + ".Base", base, 0, base.length);
+            writer.appendResource("data/noise.bin", noise, 0, noise.length);
+            writer.appendClass(PACKAGE + ".Child", child, 0, child.length);
+            writer.appendResource("data/config.json", text, 0, text.length);
+            writer.finish(file, JAR_SHA256);
+        }
+        return file;
+    }
+
+    private static void flipByte(Path file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
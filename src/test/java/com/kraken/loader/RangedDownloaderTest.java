@@ -0,0 +1,182 @@
+package com.kraken.loader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Downloads a JAR from a local stand-in for S3 which supports Range and If-Range requests and can cut chunks short.
+ */
+public class RangedDownloaderTest {
+    private static final int CHUNK = RangedDownloader.CHUNK_SIZE;
+    private static final int SIZE = 3 * CHUNK + 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private RangedDownloader downloader;
+    private URL url;
+    private Path part;
+
+    private volatile byte[] content;
+    private volatile String etag;
+    private final Set<Long> shortRanges = ConcurrentHashMap.newKeySet();
+    private final List<Long> requestedRanges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        content = randomBytes(1);
+        etag = "\"v1\"";
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/plugin.jar", this::handle);
+        server.start();
+
+        executor = Executors.newFixedThreadPool(4);
+        downloader = new RangedDownloader(executor, new BufferPool(), new BandwidthGovernor(), 5_000, 5_000);
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/plugin.jar");
+        part = folder.getRoot().toPath().resolve("plugin.jar.part");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 60_000)
+    public void resumesOnlyTheChunkWhichWasCutShort() throws IOException {
+        shortRanges.add(2L * CHUNK);
+        try {
+            downloader.download(url, part, etag, SIZE);
+            fail("Download should fail while a chunk is cut short");
+        } catch (IOException expected) {
+            // Every attempt at the third chunk is cut short.
+        }
+
+        Path state = part.resolveSibling(part.getFileName() + ".json");
+        assertTrue(Files.exists(state));
+        PartialDownload progress = new ObjectMapper().readValue(state.toFile(), PartialDownload.class);
+        assertFalse(progress.getCompletedChunks().contains(2));
+
+        // Every worker has finished when the download fails. The chunk which was cut short was attempted the maximum
+        // number of times, every other chunk once, by the worker which picked it up.
+        List<Long> failedAttempt = new ArrayList<>(requestedRanges);
+        for (int chunk = 0; chunk < 4; chunk++) {
+            int expected = chunk == 2 ? 3 : 1;
+            assertEquals("Requests for chunk " + chunk, expected, Collections.frequency(failedAttempt, (long) chunk * CHUNK));
+        }
+
+        shortRanges.clear();
+        requestedRanges.clear();
+        downloader.download(url, part, etag, SIZE);
+
+        // Only the chunks which were not recorded as complete are requested again, each exactly once.
+        for (int chunk = 0; chunk < 4; chunk++) {
+            int expected = progress.getCompletedChunks().contains(chunk) ? 0 : 1;
+            assertEquals("Requests for chunk " + chunk, expected, Collections.frequency(requestedRanges, (long) chunk * CHUNK));
+        }
+        assertEquals(4 - progress.getCompletedChunks().size(), requestedRanges.size());
+        assertArrayEquals(content, Files.readAllBytes(part));
+        assertFalse(Files.exists(state));
+    }
+
+    @Test(timeout = 60_000)
+    public void restartsFromZeroWhenTheJarChanges() throws IOException {
+        shortRanges.add(2L * CHUNK);
+        try {
+            downloader.download(url, part, etag, SIZE);
+            fail("Download should fail while a chunk is cut short");
+        } catch (IOException expected) {
+            // Every attempt at the third chunk is cut short.
+        }
+        shortRanges.clear();
+
+        // The JAR is replaced, resuming with the old ETag must not stitch the two versions together.
+        String oldEtag = etag;
+        content = randomBytes(2);
+        etag = "\"v2\"";
+        try {
+            downloader.download(url, part, oldEtag, SIZE);
+            fail("Download should fail when If-Range does not match");
+        } catch (IOException expected) {
+            // The server answers with the full new JAR instead of the requested range.
+        }
+
+        requestedRanges.clear();
+        downloader.download(url, part, etag, SIZE);
+
+        assertEquals(Arrays.asList(0L, (long) CHUNK, 2L * CHUNK, 3L * CHUNK), new ArrayList<>(new TreeSet<>(requestedRanges)));
+        assertEquals(4, requestedRanges.size());
+        assertArrayEquals(content, Files.readAllBytes(part));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = content;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().set("ETag", etag);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (range == null || (ifRange != null && !ifRange.equals(etag))) {
+                exchange.sendResponseHeaders(200, body.length);
+                out.write(body);
+                return;
+            }
+
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            long start = Long.parseLong(bounds[0]);
+            long end = Long.parseLong(bounds[1]);
+            int length = (int) (end - start + 1);
+            requestedRanges.add(start);
+
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+            if (shortRanges.contains(start)) {
+                // Chunked response which ends half way through the range.
+                exchange.sendResponseHeaders(206, 0);
+                out.write(body, (int) start, length / 2);
+                return;
+            }
+
+            exchange.sendResponseHeaders(206, length);
+            out.write(body, (int) start, length);
+        }
+    }
+
+    private static byte[] randomBytes(long seed) {
+        byte[] bytes = new byte[SIZE];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,87 @@
+package com.kraken.loader;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Serves plugin JAR resources through kraken: URLs and the class loader's resource methods.
+ */
+public class ResourceURLStreamHandlerTest {
+    private static final String NAME = "com/krakenplugins/example/config.json";
+    private static final byte[] CONTENT = "{\"enabled\":true}".getBytes(StandardCharsets.UTF_8);
+
+    private final Map<String, ByteBuffer> resources = Map.of(NAME, ByteBuffer.wrap(CONTENT).asReadOnlyBuffer());
+
+    @Test
+    public void opensResourcesThroughKrakenUrls() throws IOException {
+        ResourceURLStreamHandler handler = new ResourceURLStreamHandler(resources);
+        URL url = handler.createURL(NAME);
+
+        assertEquals("kraken:/" + NAME, url.toString());
+        URLConnection connection = url.openConnection();
+        assertEquals(CONTENT.length, connection.getContentLengthLong());
+
+        // Every stream reads the whole resource without consuming the shared buffer.
+        for (int i = 0; i < 2; i++) {
+            try (InputStream in = connection.getInputStream()) {
+                assertArrayEquals(CONTENT, in.readAllBytes());
+            }
+        }
+        assertEquals(CONTENT.length, resources.get(NAME).remaining());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void missingResourceIsNotFound() throws IOException {
+        ResourceURLStreamHandler handler = new ResourceURLStreamHandler(resources);
+        URLConnection connection = handler.createURL("com/krakenplugins/example/missing.png").openConnection();
+
+        assertEquals(-1, connection.getContentLengthLong());
+        connection.getInputStream();
+    }
+
+    @Test
+    public void classLoaderServesResourcesFromItsJar() throws IOException {
+        ByteArrayClassLoader loader = new ByteArrayClassLoader(new HeapClassStore(Collections.emptyMap()), resources);
+
+        URL url = loader.getResource(NAME);
+        assertNotNull(url);
+        assertEquals(ResourceURLStreamHandler.PROTOCOL, url.getProtocol());
+        try (InputStream in = loader.getResourceAsStream(NAME)) {
+            assertArrayEquals(CONTENT, in.readAllBytes());
+        }
+        assertNull(loader.getResource("com/krakenplugins/example/missing.png"));
+    }
+
+    @Test
+    public void byteBufferInputStreamReadsSkipsAndReportsEndOfStream() throws IOException {
+        try (InputStream in = new ByteBufferInputStream(ByteBuffer.wrap(CONTENT))) {
+            assertEquals(CONTENT.length, in.available());
+            assertEquals(CONTENT[0], in.read());
+            assertEquals(2, in.skip(2));
+
+            byte[] rest = new byte[CONTENT.length];
+            assertEquals(0, in.read(rest, 0, 0));
+            int n = in.read(rest, 0, rest.length);
+            assertEquals(CONTENT.length - 3, n);
+            assertEquals(CONTENT[3], rest[0]);
+
+            assertEquals(0, in.skip(10));
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(rest, 0, rest.length));
+        }
+    }
+}
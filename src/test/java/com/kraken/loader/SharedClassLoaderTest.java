@@ -0,0 +1,85 @@
+package com.kraken.loader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Shares classes between two plugin loaders only when both JARs bundle the same bytes and sharing cannot leak state
+ * from one plugin into the other.
+ */
+public class SharedClassLoaderTest {
+    private static final String PACKAGE = "com.krakenplugins.shared";
+    private static final String PLUGIN_CLASS = "net.runelite.client.plugins.Plugin";
+
+    @Test
+    public void identicalClassIsDefinedOnceForBothPlugins() throws Exception {
+        Map<String, byte[]> util = compile("Util", "public class Util { public static final int VERSION = 1; public int v() { return VERSION; } }");
+        ByteArrayClassLoader loaderA = loader(util);
+        ByteArrayClassLoader loaderB = loader(util);
+
+        SharedClassLoader shared = SharedClassLoader.deduplicate(List.of(loaderA, loaderB), "com/krakenplugins", PLUGIN_CLASS);
+
+        assertEquals(1, shared.getSharedClassCount());
+        assertEquals(util.get(PACKAGE + ".Util").length, shared.getBytesSaved());
+        Class<?> utilA = loaderA.loadClass(PACKAGE + ".Util");
+        assertSame(utilA, loaderB.loadClass(PACKAGE + ".Util"));
+        assertSame(shared, utilA.getClassLoader());
+    }
+
+    @Test
+    public void classWithDifferentBytesIsDefinedByEachPlugin() throws Exception {
+        ByteArrayClassLoader loaderA = loader(compile("Util", "public class Util { public int v() { return 1; } }"));
+        ByteArrayClassLoader loaderB = loader(compile("Util", "public class Util { public int v() { return 2; } }"));
+
+        SharedClassLoader shared = SharedClassLoader.deduplicate(List.of(loaderA, loaderB), "com/krakenplugins", PLUGIN_CLASS);
+
+        assertEquals(0, shared.getSharedClassCount());
+        Class<?> utilA = loaderA.loadClass(PACKAGE + ".Util");
+        Class<?> utilB = loaderB.loadClass(PACKAGE + ".Util");
+        assertSame(loaderA, utilA.getClassLoader());
+        assertSame(loaderB, utilB.getClassLoader());
+        assertEquals(1, utilA.getMethod("v").invoke(utilA.getConstructor().newInstance()));
+        assertEquals(2, utilB.getMethod("v").invoke(utilB.getConstructor().newInstance()));
+    }
+
+    @Test
+    public void classWithStaticStateAndItsDependentsAreNotShared() throws Exception {
+        Map<String, String> sources = new HashMap<>();
+        sources.put("Counter", "public class Counter { public static int count; }");
+        sources.put("Tracker", "public class Tracker { public int next() { return ++Counter.count; } }");
+        sources.put("Constants", "public class Constants { public static final String NAME = \"kraken\"; }");
+        Map<String, byte[]> classes = TestClasses.compile(PACKAGE, sources);
+        ByteArrayClassLoader loaderA = loader(classes);
+        ByteArrayClassLoader loaderB = loader(classes);
+
+        SharedClassLoader shared = SharedClassLoader.deduplicate(List.of(loaderA, loaderB), "com/krakenplugins", PLUGIN_CLASS);
+
+        assertEquals(1, shared.getSharedClassCount());
+        assertSame(shared, loaderA.loadClass(PACKAGE + ".Constants").getClassLoader());
+        Class<?> trackerA = loaderA.loadClass(PACKAGE + ".Tracker");
+        Class<?> trackerB = loaderB.loadClass(PACKAGE + ".Tracker");
+        assertNotSame(trackerA, trackerB);
+        assertNotSame(loaderA.loadClass(PACKAGE + ".Counter"), loaderB.loadClass(PACKAGE + ".Counter"));
+
+        // Each plugin counts on its own
+        assertEquals(1, trackerA.getMethod("next").invoke(trackerA.getConstructor().newInstance()));
+        assertEquals(1, trackerB.getMethod("next").invoke(trackerB.getConstructor().newInstance()));
+    }
+
+    private static Map<String, byte[]> compile(String name, String source) throws IOException {
+        return TestClasses.compile(PACKAGE, Map.of(name, source));
+    }
+
+    private static ByteArrayClassLoader loader(Map<String, byte[]> classes) {
+        return new ByteArrayClassLoader(new HeapClassStore(classes), Collections.emptyMap());
+    }
+}
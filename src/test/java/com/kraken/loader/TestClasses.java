@@ -0,0 +1,68 @@
+package com.kraken.loader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles classes for tests and builds plugin class loaders from them.
+ */
+public final class TestClasses {
+    private TestClasses() {
+    }
+
+    /**
+     * Compiles Java sources against the test classpath.
+     * @param packageName String the package every source is declared in
+     * @param sources Map of simple class name to the source of the class, without the package declaration
+     * @return Map of binary class name to class file
+     * @throws IOException When the sources cannot be written or the class files cannot be read.
+     */
+    public static Map<String, byte[]> compile(String packageName, Map<String, String> sources) throws IOException {
+        Path dir = Files.createTempDirectory("kraken-classes");
+        Path sourceDir = Files.createDirectories(dir.resolve("src"));
+        Path classDir = Files.createDirectories(dir.resolve("classes"));
+
+        List<String> args = new ArrayList<>(List.of("-d", classDir.toString(), "-cp", System.getProperty("java.class.path")));
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            Path file = sourceDir.resolve(entry.getKey() + ".java");
+            Files.write(file, ("package " + packageName + "; " + entry.getValue()).getBytes(StandardCharsets.UTF_8));
+            args.add(file.toString());
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler.run(null, null, null, args.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("Failed to compile test classes");
+        }
+
+        Map<String, byte[]> classes = new HashMap<>();
+        for (String name : sources.keySet()) {
+            classes.put(packageName + "." + name, Files.readAllBytes(classDir.resolve(packageName.replace('.', '/')).resolve(name + ".class")));
+        }
+        return classes;
+    }
+
+    /**
+     * Creates a plugin class loader as if it was loaded from a JAR in the JAR cache. The JAR hash is derived from the
+     * classes so loaders built from different classes look like different versions of the JAR.
+     * @param classes Map of binary class name to class file
+     * @param cacheKey String the JAR cache key of the JAR
+     * @return ByteArrayClassLoader for the classes
+     */
+    public static ByteArrayClassLoader loader(Map<String, byte[]> classes, String cacheKey) {
+        ByteArrayClassLoader loader = new ByteArrayClassLoader(new HeapClassStore(classes), Collections.emptyMap());
+        StringBuilder hashes = new StringBuilder();
+        classes.keySet().stream().sorted().forEach(name -> hashes.append(JarCache.sha256(ByteBuffer.wrap(classes.get(name)))));
+        loader.setJarSource(cacheKey, JarCache.sha256(ByteBuffer.wrap(hashes.toString().getBytes(StandardCharsets.UTF_8))));
+        return loader;
+    }
+}